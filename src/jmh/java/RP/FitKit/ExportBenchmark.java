@@ -0,0 +1,60 @@
+package RP.FitKit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CSV and Exact XML exports, written to a null writer so only formatting is measured and not
+ * the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExportBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    private List<SessionRow> rows;
+    private ExactXmlExporter xmlExporter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        rows = SyntheticSession.rows(size);
+        xmlExporter = new ExactXmlExporter(LocalDate.of(2024, 9, 17), "00000000-0000-0000-0000-000000000000");
+    }
+
+    @Benchmark
+    public int csv() throws IOException {
+        return CsvExporter.export(rows, Writer.nullWriter(), ExportProgress.NONE);
+    }
+
+    @Benchmark
+    public int xml() throws IOException {
+        return xmlExporter.export(rows, Writer.nullWriter(), ExportProgress.NONE);
+    }
+
+    @Benchmark
+    public int xmlAggregated() throws IOException {
+        return xmlExporter.exportAggregated(rows, Writer.nullWriter(), Writer.nullWriter(), ExportProgress.NONE);
+    }
+}
@@ -0,0 +1,48 @@
+package RP.FitKit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A search from the search box: the index lookup plus the first match from the middle of the
+ * table. The queries range from a one-digit pallet prefix (every row) to a full pallet ID.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    @Param({"1", "1000", "10000300", "fitness b", "beschad"})
+    String query;
+
+    private InventoryTableModel model;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        model = SyntheticSession.model(size);
+    }
+
+    @Benchmark
+    public int search() {
+        SessionSearchIndex.Matches matches = model.search(query);
+        return matches.count() + model.nextMatch(matches, size / 2);
+    }
+}
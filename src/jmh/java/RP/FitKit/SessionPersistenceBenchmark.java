@@ -0,0 +1,96 @@
+package RP.FitKit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Saving and loading the session: encoding a snapshot, reading it back, and a full
+ * {@link SessionStore#load()} as on startup. The journal is left empty, because closing a store
+ * with journal records compacts it and would change the files between invocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionPersistenceBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    private SessionStore.State state;
+    private Path directory;
+    private Path snapshotFile;
+    private Path journalFile;
+    private ByteArrayOutputStream encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        state = SyntheticSession.state(size);
+        encoded = new ByteArrayOutputStream(size * 64);
+        directory = Files.createTempDirectory("session-benchmark");
+        snapshotFile = directory.resolve("session.dat");
+        journalFile = directory.resolve("session.journal");
+        try (OutputStream out = Files.newOutputStream(snapshotFile)) {
+            SessionSnapshotFormat.write(state, out);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int encodeSnapshot() throws IOException {
+        encoded.reset();
+        SessionSnapshotFormat.write(state, encoded);
+        return encoded.size();
+    }
+
+    @Benchmark
+    public int readSnapshot() throws IOException {
+        LinkedHashMap<String, SessionRow> rows = new LinkedHashMap<>();
+        Set<String> edited = new LinkedHashSet<>();
+        SessionSnapshotFormat.read(snapshotFile, rows, edited);
+        return rows.size();
+    }
+
+    @Benchmark
+    public int loadSession() throws IOException {
+        SessionStore store = new SessionStore(snapshotFile, journalFile, () -> state);
+        try {
+            return store.load().rows().size();
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package RP.FitKit;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates reproducible sessions that look like a real count: eight-digit pallet IDs, a few hundred
+ * distinct articles in the "name (code)" form the labels use, and a note on a small share of the rows.
+ */
+final class SyntheticSession {
+    static final long FIRST_PALLET_ID = 10_000_000L;
+    private static final int ARTICLES = 400;
+    private static final long SEED = 20240917L;
+
+    private SyntheticSession() {
+    }
+
+    static List<SessionRow> rows(int size) {
+        Random random = new Random(SEED);
+        List<SessionRow> rows = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int article = random.nextInt(ARTICLES);
+            String notes = random.nextInt(20) == 0 ? "Beschadigd, nageteld" : "";
+            rows.add(new SessionRow(Long.toString(FIRST_PALLET_ID + i * 3L), article(article), 1 + random.nextInt(480), notes));
+        }
+        return rows;
+    }
+
+    static SessionStore.State state(int size) {
+        List<SessionRow> rows = rows(size);
+        Set<String> edited = new LinkedHashSet<>();
+        for (int i = 0; i < rows.size(); i += 50) {
+            edited.add(rows.get(i).palletId());
+        }
+        return new SessionStore.State(rows, edited, 0);
+    }
+
+    static InventoryTableModel model(int size) {
+        InventoryTableModel model = new InventoryTableModel();
+        model.addRows(rows(size));
+        return model;
+    }
+
+    private static String article(int index) {
+        return "Artikel " + index + " - Fitness accessoire " + (char) ('A' + index % 26) + " (" + (100_000 + index * 7) + ")";
+    }
+}
@@ -0,0 +1,85 @@
+package RP.FitKit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work done for every scan on the EDT: the duplicate check, adding a row (which also updates
+ * the summary) and reading the summary, plus building the model from a restored session.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableModelBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    private List<SessionRow> rows;
+    private InventoryTableModel model;
+    private String[] present;
+    private String[] absent;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        rows = SyntheticSession.rows(size);
+        model = SyntheticSession.model(size);
+        present = new String[1024];
+        absent = new String[1024];
+        for (int i = 0; i < present.length; i++) {
+            present[i] = rows.get((int) ((i * 2_654_435_761L) % size)).palletId();
+            // Synthetic IDs are multiples of three apart, so these never occur.
+            absent[i] = Long.toString(SyntheticSession.FIRST_PALLET_ID + 1 + i * 3L);
+        }
+    }
+
+    @Benchmark
+    public boolean duplicateCheckHit() {
+        return model.containsPalletId(present[next++ & 1023]);
+    }
+
+    @Benchmark
+    public boolean duplicateCheckMiss() {
+        return model.containsPalletId(absent[next++ & 1023]);
+    }
+
+    @Benchmark
+    public long summary() {
+        SessionSummary summary = model.summary();
+        return summary.palletCount() + summary.totalQuantity() + summary.uniqueArticles();
+    }
+
+    // Adds one row to a session of the given size and takes it out again, so the size stays put.
+    @Benchmark
+    public int addAndRemoveRow() {
+        SessionRow row = rows.get(next++ % size);
+        int index = model.addRow("9" + row.palletId(), row.article(), row.quantity(), "");
+        model.removeRow(index);
+        return index;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public InventoryTableModel buildModel() {
+        InventoryTableModel restored = new InventoryTableModel();
+        restored.addRows(rows);
+        return restored;
+    }
+}
@@ -0,0 +1,112 @@
+package RP.FitKit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paints one screen of the inventory table at a different scroll position per invocation, the way
+ * the viewport repaints while the user scrolls, and measures adding a row with its highlight.
+ * Runs headless: the table paints into an image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TableScrollBenchmark {
+    private static final int WIDTH = 1200;
+    private static final int VIEWPORT_HEIGHT = 700;
+    private static final int ROW_HEIGHT = 28;
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    private InventoryTableModel model;
+    private InventoryTable table;
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private int scrollStep;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<SessionRow> rows = SyntheticSession.rows(size);
+        model = SyntheticSession.model(size);
+        // One in fifty rows edited and one in a hundred differing from the database, as after a long count.
+        Set<String> edited = new HashSet<>();
+        Map<String, String> drift = new HashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (i % 50 == 0) {
+                edited.add(rows.get(i).palletId());
+            }
+            if (i % 100 == 7) {
+                drift.put(rows.get(i).palletId(), "Geregistreerd aantal in de database: 1");
+            }
+        }
+        model.setFlag(edited, InventoryTableModel.FLAG_EDITED);
+        model.setFlag(drift.keySet(), InventoryTableModel.FLAG_DRIFT);
+
+        table = new InventoryTable(model, drift);
+        table.setRowHeight(ROW_HEIGHT);
+        table.setSize(WIDTH, size * ROW_HEIGHT);
+        table.doLayout();
+        table.setHighlightedRow(size / 2);
+
+        image = new BufferedImage(WIDTH, VIEWPORT_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+        // A scroll wheel notch moves three rows; a larger step spreads the positions over the whole table.
+        scrollStep = Math.max(3, size / 997) * ROW_HEIGHT;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paintViewport() {
+        int maxY = size * ROW_HEIGHT - VIEWPORT_HEIGHT;
+        int y = (int) ((long) next++ * scrollStep % Math.max(1, maxY));
+        Graphics2D g = (Graphics2D) graphics.create();
+        try {
+            g.translate(0, -y);
+            g.setClip(0, y, WIDTH, VIEWPORT_HEIGHT);
+            table.paint(g);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    // Adds a row at the end, highlights it and takes it out again, so the size stays put.
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int addHighlightedRow() {
+        int row = model.addRow("9" + next++, "Artikel (1)", 12, "");
+        table.setHighlightedRow(row);
+        table.rowRemoved(row);
+        model.removeRow(row);
+        return row;
+    }
+}
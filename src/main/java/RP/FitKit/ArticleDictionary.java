@@ -0,0 +1,62 @@
+package RP.FitKit;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The distinct article names of a session, each under a compact ID together with its item code,
+ * which is parsed once. Rows refer to their article by ID, so a name is kept once however many
+ * pallets carry it and grouping per article works on ints. Names are only added, never removed,
+ * so an ID stays valid as long as the dictionary lives.
+ * <p>
+ * Articles are added on one thread at a time; lookups are safe from any thread, so an export
+ * running in the background shares the item codes with the table.
+ */
+final class ArticleDictionary {
+    private final Map<String, Integer> idByName = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private volatile String[] itemCodes = new String[64];
+    private int size;
+
+    /** Returns the ID of the article, adding it when it is new. */
+    int idOf(String name) {
+        Integer id = idByName.get(name);
+        return id != null ? id : add(name);
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    String itemCode(int id) {
+        return itemCodes[id];
+    }
+
+    String itemCodeOf(String name) {
+        return itemCode(idOf(name));
+    }
+
+    /** The number of IDs handed out; every ID is below it. */
+    int size() {
+        return idByName.size();
+    }
+
+    private synchronized int add(String name) {
+        Integer existing = idByName.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        int id = size;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, id * 2);
+            itemCodes = Arrays.copyOf(itemCodes, id * 2);
+        }
+        names[id] = name;
+        itemCodes[id] = ExactXmlExporter.extractItemCode(name);
+        // Published last: a reader that finds the ID also sees the arrays holding it.
+        idByName.put(name, id);
+        size++;
+        return id;
+    }
+}
@@ -0,0 +1,261 @@
+package RP.FitKit;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless mode: reads pallet IDs (one per line) from a file or stdin, resolves them against the
+ * database in set-based chunks and writes the counted rows as CSV or Exact XML, without the Swing
+ * UI. Input is processed one chunk at a time and output is streamed, so memory stays bounded by the
+ * chunk size plus the duplicate index (a few bytes per distinct numeric ID). Pallets that cannot be
+ * resolved are listed with a reason in the optional missing-file.
+ */
+final class BatchRunner {
+    static final String USAGE = """
+            Gebruik: --batch [opties]
+              --input <bestand>      pallet IDs, één per regel (standaard: stdin)
+              --output <bestand>     resultaat (standaard: stdout)
+              --format csv|xml       uitvoerformaat (standaard: op basis van --output, anders csv)
+              --missing <bestand>    niet gevonden of ongeldige pallet IDs met reden
+              --chunk-size <aantal>  pallet IDs per query (standaard en maximaal %d)
+              --keep-duplicates      dubbele pallet IDs niet overslaan
+            """.formatted(PalletRepository.MAX_BATCH_SIZE);
+
+    private static final int FLUSH_THRESHOLD = 32 * 1024;
+    private static final int DB_POOL_SIZE = 2;
+    private static final int DB_QUERY_TIMEOUT_SECONDS = 60;
+
+    enum Format { CSV, XML }
+
+    record Options(Path input, Path output, Format format, Path missing, int chunkSize, boolean keepDuplicates) {
+    }
+
+    record Summary(long lines, long written, long notFound, long invalid, long duplicates, long queries) {
+    }
+
+    private final PalletRepository repository;
+    private final Options options;
+    private final PalletIdIndex seen = new PalletIdIndex();
+    private final StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD + 4096);
+    private ExactXmlExporter xmlExporter;
+    private long lines;
+    private long written;
+    private long notFound;
+    private long invalid;
+    private long duplicates;
+    private long queries;
+
+    BatchRunner(PalletRepository repository, Options options) {
+        this.repository = repository;
+        this.options = options;
+    }
+
+    /** Entry point for {@code --batch}; returns the process exit code. */
+    static int run(String[] args) {
+        Options options;
+        try {
+            options = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            return 2;
+        }
+
+        long start = System.nanoTime();
+        try (ConnectionPool pool = DatabaseConfig.load().createPool(DB_POOL_SIZE, DB_QUERY_TIMEOUT_SECONDS)) {
+            pool.validate();
+            Summary summary = new BatchRunner(new PalletRepository(pool), options).run();
+            System.err.println("Klaar in " + Duration.ofNanos(System.nanoTime() - start).toMillis() + " ms: "
+                    + summary.written() + " pallets geschreven, " + summary.notFound() + " niet gevonden, "
+                    + summary.invalid() + " ongeldig, " + summary.duplicates() + " dubbel overgeslagen ("
+                    + summary.lines() + " regels, " + summary.queries() + " queries).");
+            return 0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            System.err.println("Databasefout: " + e.getMessage());
+            return 1;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Fout bij lezen of schrijven: " + e.getMessage());
+            return 1;
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Kon de configuratie niet laden. Zorg ervoor dat het .env-bestand bestaat.\nFout: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    static Options parse(String[] args) {
+        Path input = null;
+        Path output = null;
+        Format format = null;
+        Path missing = null;
+        int chunkSize = PalletRepository.MAX_BATCH_SIZE;
+        boolean keepDuplicates = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--input" -> input = Paths.get(value(args, ++i, arg));
+                case "--output" -> output = Paths.get(value(args, ++i, arg));
+                case "--missing" -> missing = Paths.get(value(args, ++i, arg));
+                case "--format" -> {
+                    String name = value(args, ++i, arg);
+                    try {
+                        format = Format.valueOf(name.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Onbekend formaat: " + name);
+                    }
+                }
+                case "--chunk-size" -> {
+                    String size = value(args, ++i, arg);
+                    try {
+                        chunkSize = Integer.parseInt(size);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Ongeldige chunkgrootte: " + size);
+                    }
+                    if (chunkSize < 1 || chunkSize > PalletRepository.MAX_BATCH_SIZE) {
+                        throw new IllegalArgumentException("De chunkgrootte moet tussen 1 en " + PalletRepository.MAX_BATCH_SIZE + " liggen.");
+                    }
+                }
+                case "--keep-duplicates" -> keepDuplicates = true;
+                default -> throw new IllegalArgumentException("Onbekende optie: " + arg);
+            }
+        }
+        if (format == null) {
+            format = output != null && output.toString().toLowerCase().endsWith(".xml") ? Format.XML : Format.CSV;
+        }
+        return new Options(input, output, format, missing, chunkSize, keepDuplicates);
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Optie " + option + " verwacht een waarde.");
+        }
+        return args[index];
+    }
+
+    Summary run() throws IOException, SQLException {
+        BufferedReader in = options.input() == null
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(options.input(), StandardCharsets.UTF_8);
+        try (in;
+             Writer missing = options.missing() == null ? Writer.nullWriter() : Files.newBufferedWriter(options.missing(), StandardCharsets.UTF_8)) {
+            if (options.output() == null) {
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+                process(in, out, missing);
+                out.flush();
+            } else {
+                Path partial = options.output().resolveSibling(options.output().getFileName() + ".part");
+                boolean completed = false;
+                try (Writer out = Files.newBufferedWriter(partial)) {
+                    process(in, out, missing);
+                    completed = true;
+                } finally {
+                    if (!completed) {
+                        Files.deleteIfExists(partial);
+                    }
+                }
+                Files.move(partial, options.output(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return new Summary(lines, written, notFound, invalid, duplicates, queries);
+    }
+
+    void process(BufferedReader in, Writer out, Writer missing) throws IOException, SQLException {
+        if (options.format() == Format.XML) {
+            xmlExporter = new ExactXmlExporter(LocalDate.now(), ExactXmlExporter.newEntryId());
+            xmlExporter.writeHeader(buffer);
+        } else {
+            buffer.append(CsvExporter.HEADER).append(System.lineSeparator());
+        }
+
+        List<String> chunk = new ArrayList<>(options.chunkSize());
+        String line;
+        while ((line = in.readLine()) != null) {
+            lines++;
+            String palletId = line.trim();
+            if (palletId.isEmpty()) {
+                continue;
+            }
+            try {
+                Long.parseLong(palletId);
+            } catch (NumberFormatException e) {
+                invalid++;
+                missing.write(palletId + "\tongeldig\n");
+                continue;
+            }
+            if (!options.keepDuplicates() && !seen.add(palletId)) {
+                duplicates++;
+                continue;
+            }
+            chunk.add(palletId);
+            if (chunk.size() == options.chunkSize()) {
+                resolveChunk(chunk, out, missing);
+            }
+        }
+        resolveChunk(chunk, out, missing);
+
+        if (xmlExporter != null) {
+            xmlExporter.writeFooter(buffer);
+        }
+        ExactXmlExporter.flush(buffer, out);
+    }
+
+    private void resolveChunk(List<String> chunk, Writer out, Writer missing) throws IOException, SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        Map<String, PalletInfo> found = new HashMap<>(chunk.size() * 2);
+        repository.lookupAll(chunk, found::put);
+        queries++;
+        for (String palletId : chunk) {
+            PalletInfo info = found.get(palletId);
+            if (info == null) {
+                notFound++;
+                missing.write(palletId + "\tniet gevonden\n");
+                continue;
+            }
+            int quantity;
+            try {
+                quantity = Integer.parseInt(info.articleQuantity().trim());
+            } catch (NumberFormatException | NullPointerException e) {
+                quantity = 0;
+            }
+            if (quantity <= 0) {
+                notFound++;
+                missing.write(palletId + "\tongeldig aantal: " + info.articleQuantity() + "\n");
+                continue;
+            }
+            writeRow(new SessionRow(palletId, info.fullName(), quantity, ""));
+        }
+        chunk.clear();
+        if (buffer.length() >= FLUSH_THRESHOLD) {
+            ExactXmlExporter.flush(buffer, out);
+        }
+    }
+
+    private void writeRow(SessionRow row) {
+        if (xmlExporter != null) {
+            xmlExporter.appendLinePair(buffer, (int) (written * 2 + 1), xmlExporter.itemCode(row.article()), row.quantity(), row.palletId());
+        } else {
+            CsvExporter.appendRow(buffer, row).append(System.lineSeparator());
+        }
+        written++;
+    }
+}
@@ -0,0 +1,364 @@
+package RP.FitKit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits an export into standalone CSV or eExact XML files of a bounded size, written in parallel.
+ * <p>
+ * Every XML chunk is a complete document with its own entry number. A manifest next to the chunks
+ * records, per chunk, the row range, a hash of the rows it holds and the SHA-256 of the file. When
+ * an export into the same directory is repeated, chunks whose rows are unchanged and whose file
+ * still matches its checksum are kept as they are, so a partly failed export can be resumed. A
+ * chunk keeps the booking date it was first written with only as long as its rows stay the same;
+ * chunk files that the new plan no longer lists are deleted, so they cannot be imported twice.
+ */
+final class ChunkedExporter {
+    enum Format {
+        CSV("csv"), XML("xml");
+
+        final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    record Chunk(int number, String fileName, String entryId, LocalDate date, int fromRow, int toRow, String rowsHash, String sha256) {
+        boolean isComplete() {
+            return sha256 != null;
+        }
+    }
+
+    record Result(List<Chunk> chunks, int written, int reused, Path manifest) {
+    }
+
+    private static final String MANIFEST_HEADER = "INVENTORY_EXPORT_MANIFEST 2";
+    // Version 1 had one date for all chunks.
+    private static final String MANIFEST_HEADER_V1 = "INVENTORY_EXPORT_MANIFEST 1";
+    private static final String MISSING = "-";
+    // Header (and for XML the footer) of a chunk, on top of its rows.
+    private static final int XML_OVERHEAD = 400;
+    private static final int CSV_OVERHEAD = 64;
+
+    private final Format format;
+    private final int maxRows;
+    private final long maxBytes;
+    // Shared by the planning pass and the chunk writers, so each article is parsed once per export.
+    private final ArticleDictionary articles = new ArticleDictionary();
+
+    /**
+     * @param maxRows  the maximum number of rows per chunk, or 0 for no row limit
+     * @param maxBytes the approximate maximum file size per chunk, or 0 for no size limit
+     */
+    ChunkedExporter(Format format, int maxRows, long maxBytes) {
+        if (maxRows <= 0 && maxBytes <= 0) {
+            throw new IllegalArgumentException("Geef een maximum aantal rijen of een maximale grootte op.");
+        }
+        this.format = format;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+    }
+
+    static Path manifestPath(Path directory, String baseName) {
+        return directory.resolve(baseName + "_manifest.txt");
+    }
+
+    /**
+     * Writes all chunks and the manifest. Chunks that fail are recorded without a checksum and
+     * reported in the exception; the chunks that did succeed are kept for a retry.
+     *
+     * @throws CancellationException when the progress callback asks to stop
+     */
+    Result export(List<SessionRow> rows, Path directory, String baseName, ExportProgress progress) throws IOException {
+        Path manifest = manifestPath(directory, baseName);
+        Map<Integer, Chunk> previous = new HashMap<>();
+        List<String> previousFiles = new ArrayList<>();
+        readManifest(manifest, previous, previousFiles);
+        LocalDate date = LocalDate.now();
+
+        long entryBase = Long.parseLong(ExactXmlExporter.newEntryId());
+        List<int[]> ranges = plan(rows, date);
+        List<Chunk> chunks = new ArrayList<>(ranges.size());
+        List<Chunk> toWrite = new ArrayList<>();
+        int reusedRows = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            int from = ranges.get(i)[0];
+            int to = ranges.get(i)[1];
+            int number = i + 1;
+            String rowsHash = rowsHash(rows.subList(from, to));
+            Chunk old = previous.get(number);
+            if (old != null && old.fromRow() == from && old.toRow() == to && old.rowsHash().equals(rowsHash)) {
+                if (old.isComplete() && old.sha256().equals(sha256(directory.resolve(old.fileName())))) {
+                    chunks.add(old);
+                    reusedRows += to - from;
+                    continue;
+                }
+                // Same rows as last time: keep the entry number and date so a retry does not book them twice.
+                Chunk retry = new Chunk(number, old.fileName(), old.entryId(), old.date(), from, to, rowsHash, null);
+                chunks.add(retry);
+                toWrite.add(retry);
+                continue;
+            }
+            String fileName = String.format("%s_%03d.%s", baseName, number, format.extension);
+            Chunk chunk = new Chunk(number, fileName, String.valueOf(entryBase + i), date, from, to, rowsHash, null);
+            chunks.add(chunk);
+            toWrite.add(chunk);
+        }
+
+        AtomicInteger rowsDone = new AtomicInteger(reusedRows);
+        Map<Integer, String> checksums = new HashMap<>();
+        List<String> failures = new ArrayList<>();
+        int threads = Math.max(1, Math.min(toWrite.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CancellationException cancelled = null;
+        try {
+            List<Future<String>> futures = new ArrayList<>(toWrite.size());
+            for (Chunk chunk : toWrite) {
+                futures.add(executor.submit(() -> writeChunk(rows, chunk, directory, rowsDone, progress)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Chunk chunk = toWrite.get(i);
+                try {
+                    checksums.put(chunk.number(), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CancellationException cancellation) {
+                        futures.forEach(future -> future.cancel(true));
+                        cancelled = cancellation;
+                        break;
+                    }
+                    e.getCause().printStackTrace();
+                    failures.add(chunk.fileName() + ": " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    futures.forEach(future -> future.cancel(true));
+                    cancelled = new CancellationException();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Chunk> result = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            String checksum = checksums.get(chunk.number());
+            result.add(checksum == null ? chunk
+                    : new Chunk(chunk.number(), chunk.fileName(), chunk.entryId(), chunk.date(), chunk.fromRow(), chunk.toRow(), chunk.rowsHash(), checksum));
+        }
+        deleteUnlisted(directory, previousFiles, result);
+        // Also written after a cancel, so the chunks that did finish are reused next time.
+        writeManifest(manifest, rows.size(), result);
+        if (cancelled != null) {
+            throw cancelled;
+        }
+
+        if (!failures.isEmpty()) {
+            throw new IOException(failures.size() + " van de " + chunks.size() + " delen zijn mislukt ("
+                    + String.join("; ", failures) + "). Exporteer opnieuw naar dezelfde map om alleen deze delen opnieuw te schrijven.");
+        }
+        return new Result(result, toWrite.size(), chunks.size() - toWrite.size(), manifest);
+    }
+
+    private List<int[]> plan(List<SessionRow> rows, LocalDate date) {
+        List<int[]> ranges = new ArrayList<>();
+        ExactXmlExporter measurer = new ExactXmlExporter(date, "0", articles);
+        StringBuilder scratch = new StringBuilder(2048);
+        int start = 0;
+        long bytes = format == Format.XML ? XML_OVERHEAD : CSV_OVERHEAD;
+        for (int row = 0; row < rows.size(); row++) {
+            long rowBytes = maxBytes > 0 ? measure(rows.get(row), measurer, scratch) : 0;
+            boolean full = (maxRows > 0 && row - start >= maxRows)
+                    || (maxBytes > 0 && row > start && bytes + rowBytes > maxBytes);
+            if (full) {
+                ranges.add(new int[]{start, row});
+                start = row;
+                bytes = format == Format.XML ? XML_OVERHEAD : CSV_OVERHEAD;
+            }
+            bytes += rowBytes;
+        }
+        if (start < rows.size()) {
+            ranges.add(new int[]{start, rows.size()});
+        }
+        return ranges;
+    }
+
+    // Character count of the row as it will be written; close to the byte count for the ASCII this mostly is.
+    private int measure(SessionRow row, ExactXmlExporter measurer, StringBuilder scratch) {
+        scratch.setLength(0);
+        if (format == Format.XML) {
+            measurer.appendLinePair(scratch, 1, measurer.itemCode(row.article()), row.quantity(), row.palletId());
+            return scratch.length();
+        }
+        return CsvExporter.appendRow(scratch, row).length() + System.lineSeparator().length();
+    }
+
+    private String writeChunk(List<SessionRow> rows, Chunk chunk, Path directory,
+                              AtomicInteger rowsDone, ExportProgress progress) throws IOException {
+        Path target = directory.resolve(chunk.fileName());
+        Path partial = directory.resolve(chunk.fileName() + ".part");
+        MessageDigest digest = newDigest();
+        int[] reported = {0};
+        ExportProgress chunkProgress = rowsWritten -> {
+            int total = rowsDone.addAndGet(rowsWritten - reported[0]);
+            reported[0] = rowsWritten;
+            return !Thread.currentThread().isInterrupted() && progress.rowsWritten(total);
+        };
+
+        boolean completed = false;
+        try (OutputStream file = Files.newOutputStream(partial);
+             Writer writer = new OutputStreamWriter(new DigestOutputStream(file, digest), Charset.defaultCharset())) {
+            List<SessionRow> chunkRows = rows.subList(chunk.fromRow(), chunk.toRow());
+            if (format == Format.XML) {
+                new ExactXmlExporter(chunk.date(), chunk.entryId(), articles).export(chunkRows, writer, chunkProgress);
+            } else {
+                CsvExporter.export(chunkRows, writer, chunkProgress);
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                Files.deleteIfExists(partial);
+            }
+        }
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Reads the chunks of an earlier export that can be reused into {@code chunks}, and the file
+     * names of all its chunks into {@code files}, also when the chunks cannot be reused.
+     */
+    private void readManifest(Path manifest, Map<Integer, Chunk> chunks, List<String> files) {
+        if (!Files.exists(manifest)) {
+            return;
+        }
+        boolean sameFormat = true;
+        LocalDate date = null;
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (!MANIFEST_HEADER.equals(header) && !MANIFEST_HEADER_V1.equals(header)) {
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                switch (fields[0]) {
+                    case "format" -> sameFormat = format.name().equals(fields[1]);
+                    case "date" -> date = LocalDate.parse(fields[1]);
+                    case "chunk" -> {
+                        int number = Integer.parseInt(fields[1]);
+                        files.add(fields[2]);
+                        LocalDate chunkDate = fields.length > 8 ? LocalDate.parse(fields[8]) : date;
+                        chunks.put(number, new Chunk(number, fields[2], fields[3], chunkDate, Integer.parseInt(fields[4]),
+                                Integer.parseInt(fields[5]), fields[6], MISSING.equals(fields[7]) ? null : fields[7]));
+                    }
+                    default -> {
+                        // Informational lines such as the row count.
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Bestaand exportoverzicht kon niet worden gelezen, alle delen worden opnieuw geschreven: " + e.getMessage());
+            chunks.clear();
+            return;
+        }
+        if (!sameFormat) {
+            chunks.clear();
+        }
+    }
+
+    // Chunks of an earlier export that the new plan does not list would otherwise be imported again.
+    private static void deleteUnlisted(Path directory, List<String> previousFiles, List<Chunk> chunks) throws IOException {
+        List<String> listed = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            listed.add(chunk.fileName());
+        }
+        for (String fileName : previousFiles) {
+            if (!listed.contains(fileName) && Files.deleteIfExists(directory.resolve(fileName))) {
+                System.out.println("Verouderd exportdeel verwijderd: " + fileName);
+            }
+        }
+    }
+
+    private void writeManifest(Path manifest, int rowCount, List<Chunk> chunks) throws IOException {
+        StringBuilder text = new StringBuilder(MANIFEST_HEADER).append('\n')
+                .append("format\t").append(format.name()).append('\n')
+                .append("rows\t").append(rowCount).append('\n');
+        for (Chunk chunk : chunks) {
+            text.append("chunk\t").append(chunk.number())
+                    .append('\t').append(chunk.fileName())
+                    .append('\t').append(chunk.entryId())
+                    .append('\t').append(chunk.fromRow())
+                    .append('\t').append(chunk.toRow())
+                    .append('\t').append(chunk.rowsHash())
+                    .append('\t').append(chunk.isComplete() ? chunk.sha256() : MISSING)
+                    .append('\t').append(chunk.date())
+                    .append('\n');
+        }
+        Path temp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        Files.writeString(temp, text, StandardCharsets.UTF_8);
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String rowsHash(List<SessionRow> rows) {
+        MessageDigest digest = newDigest();
+        for (SessionRow row : rows) {
+            digest.update(row.palletId().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(row.article().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Integer.toString(row.quantity()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(row.notes().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String sha256(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return MISSING;
+        }
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is niet beschikbaar", e);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package RP.FitKit;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small pool around the SQL Server driver. Connections are validated before reuse, broken ones
+ * are replaced with exponential backoff, and every connection keeps its own prepared statements
+ * so the lookup query is only parsed once per connection.
+ */
+class ConnectionPool implements AutoCloseable {
+
+    interface SqlWork<T> {
+        T run(PooledConnection connection) throws SQLException;
+    }
+
+    static final class PooledConnection {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private final int queryTimeoutSeconds;
+        private long lastUsed = System.nanoTime();
+
+        private PooledConnection(Connection connection, int queryTimeoutSeconds) {
+            this.connection = connection;
+            this.queryTimeoutSeconds = queryTimeoutSeconds;
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null || statement.isClosed()) {
+                statement = connection.prepareStatement(sql);
+                statement.setQueryTimeout(queryTimeoutSeconds);
+                statements.put(sql, statement);
+            }
+            statement.clearParameters();
+            return statement;
+        }
+
+        private void closeQuietly() {
+            for (PreparedStatement statement : statements.values()) {
+                try {
+                    statement.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    private static final int MAX_RETRIES = 3;
+    private static final long INITIAL_BACKOFF_MILLIS = 250;
+    private static final long IDLE_VALIDATION_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 3;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int queryTimeoutSeconds;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private volatile boolean closed;
+
+    ConnectionPool(String url, String user, String password, int maxConnections, int queryTimeoutSeconds) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * Runs the work on a pooled connection. A failure that looks like a dropped connection
+     * discards that connection and retries the work once on a fresh one.
+     */
+    <T> T execute(SqlWork<T> work) throws SQLException {
+        SQLException lastError = null;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            PooledConnection connection = borrow();
+            boolean healthy = true;
+            try {
+                return work.run(connection);
+            } catch (SQLException e) {
+                lastError = e;
+                healthy = !isConnectionFailure(e, connection);
+                if (healthy) {
+                    throw e;
+                }
+            } finally {
+                release(connection, healthy);
+            }
+        }
+        throw lastError;
+    }
+
+    void validate() throws SQLException {
+        if (!execute(c -> c.connection.isValid(VALIDATION_TIMEOUT_SECONDS))) {
+            throw new SQLException("Databaseverbinding reageert niet.", "08006");
+        }
+    }
+
+    boolean isHealthy() {
+        try {
+            validate();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connectiepool is gesloten.", "08003");
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Onderbroken tijdens het wachten op een databaseverbinding.", "08001", e);
+        }
+        try {
+            PooledConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (System.nanoTime() - connection.lastUsed < IDLE_VALIDATION_NANOS
+                        || connection.connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    return connection;
+                }
+                connection.closeQuietly();
+            }
+            return connect();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(PooledConnection connection, boolean healthy) {
+        if (healthy && !closed) {
+            connection.lastUsed = System.nanoTime();
+            idle.offerFirst(connection);
+        } else {
+            connection.closeQuietly();
+        }
+        permits.release();
+    }
+
+    private PooledConnection connect() throws SQLException {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return new PooledConnection(DriverManager.getConnection(url, user, password), queryTimeoutSeconds);
+            } catch (SQLException e) {
+                if (attempt >= MAX_RETRIES || closed) {
+                    throw e;
+                }
+                System.out.println("Verbinden mislukt (poging " + attempt + "), opnieuw over " + backoff + " ms.");
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                backoff *= 2;
+            }
+        }
+    }
+
+    private static boolean isConnectionFailure(SQLException e, PooledConnection connection) {
+        if (e instanceof SQLTransientException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        if (state != null && state.startsWith("08")) {
+            return true;
+        }
+        try {
+            return connection.connection.isClosed() || !connection.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException ignored) {
+            return true;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            connection.closeQuietly();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package RP.FitKit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Optional count server that lets the stations of one count see each other's scans. Stations post
+ * their changes in batches and long-poll for the changes of the others; the server only keeps an
+ * in-memory log of events with a sequence number, so it can be restarted at any time (the epoch
+ * tells the stations to send their state again). Once most of the log is superseded, it is
+ * rebuilt from the latest PUT per pallet under a new epoch, so the stations read it again from the
+ * start; the instance stays the same, so they do not send their state again. The protocol is plain
+ * text, one tab-separated event per line:
+ * <pre>
+ * POST /events?station=S   body: PUT id quantity article | REMOVE id | CLEAR
+ * GET  /events?since=N     reply: EPOCH epoch latest instance, then: seq station PUT|REMOVE|CLEAR ...
+ * GET  /status             pallets per station
+ * </pre>
+ */
+final class CountServer {
+    static final String USAGE = """
+            Gebruik: --server [--port <poort>]
+              --port <poort>  poort waarop de telserver luistert (standaard %d)
+            """.formatted(CountSyncClient.DEFAULT_PORT);
+
+    private static final int MAX_EVENTS_PER_REPLY = 5000;
+    private static final long MAX_WAIT_MILLIS = 30_000;
+    private static final int COMPACT_AFTER_EVENTS = 10_000;
+
+    private final long instance = System.currentTimeMillis();
+    private long epoch = instance;
+    private final Object lock = new Object();
+    private final List<String> log = new ArrayList<>();
+    private final Map<String, String> stationByPalletId = new HashMap<>();
+    // The log line of the PUT that set each entry of stationByPalletId.
+    private final Map<String, String> latestPutByPalletId = new LinkedHashMap<>();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /** Entry point for {@code --server}; the server keeps the process alive on its own threads until it is stopped. */
+    static int run(String[] args) {
+        int port = CountSyncClient.DEFAULT_PORT;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port") && i + 1 < args.length) {
+                try {
+                    port = Integer.parseInt(args[++i]);
+                    continue;
+                } catch (NumberFormatException e) {
+                    System.err.println("Ongeldige poort: " + args[i]);
+                    return 2;
+                }
+            }
+            System.err.println("Onbekende optie: " + args[i]);
+            System.err.print(USAGE);
+            return 2;
+        }
+        try {
+            CountServer countServer = new CountServer();
+            countServer.start(port);
+            System.out.println("Telserver gestart op poort " + countServer.port() + ".");
+            Runtime.getRuntime().addShutdownHook(new Thread(countServer::stop));
+            return 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Kon de telserver niet starten: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        // Long polls hold a thread each, so the pool must grow with the number of stations.
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "count-server");
+            thread.setDaemon(false);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/events", this::handleEvents);
+        server.createContext("/status", this::handleStatus);
+        server.start();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Map<String, String> query = query(exchange);
+            if (exchange.getRequestMethod().equals("POST")) {
+                String station = query.get("station");
+                if (station == null || station.isBlank()) {
+                    reply(exchange, 400, "station ontbreekt\n");
+                    return;
+                }
+                String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                String reply;
+                synchronized (lock) {
+                    long latest = append(station, body);
+                    reply = "EPOCH\t" + epoch + "\t" + latest + "\t" + instance + "\n";
+                }
+                reply(exchange, 200, reply);
+            } else {
+                long since;
+                long wait;
+                try {
+                    since = Long.parseLong(query.getOrDefault("since", "0"));
+                    wait = Math.min(MAX_WAIT_MILLIS, Long.parseLong(query.getOrDefault("wait", "0")));
+                } catch (NumberFormatException e) {
+                    reply(exchange, 400, "ongeldige parameter\n");
+                    return;
+                }
+                reply(exchange, 200, eventsSince(since, wait));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Map<String, Integer> perStation = new TreeMap<>();
+            StringBuilder text;
+            synchronized (lock) {
+                for (String station : stationByPalletId.values()) {
+                    perStation.merge(station, 1, Integer::sum);
+                }
+                text = new StringBuilder("EPOCH\t" + epoch + "\t" + log.size() + "\t" + instance + "\n");
+            }
+            perStation.forEach((station, pallets) -> text.append(station).append('\t').append(pallets).append('\n'));
+            reply(exchange, 200, text.toString());
+        }
+    }
+
+    // Returns the sequence number of the last event.
+    private long append(String station, String body) {
+        synchronized (lock) {
+            for (String line : body.split("\n")) {
+                String[] fields = line.split("\t", 4);
+                String event = station + "\t" + line;
+                switch (fields[0]) {
+                    case "PUT" -> {
+                        if (fields.length < 4) {
+                            continue;
+                        }
+                        stationByPalletId.put(fields[1], station);
+                        latestPutByPalletId.put(fields[1], event);
+                    }
+                    case "REMOVE" -> {
+                        if (fields.length < 2) {
+                            continue;
+                        }
+                        if (stationByPalletId.remove(fields[1], station)) {
+                            latestPutByPalletId.remove(fields[1]);
+                        }
+                    }
+                    case "CLEAR" -> {
+                        for (Iterator<Map.Entry<String, String>> it = stationByPalletId.entrySet().iterator(); it.hasNext(); ) {
+                            Map.Entry<String, String> entry = it.next();
+                            if (entry.getValue().equals(station)) {
+                                latestPutByPalletId.remove(entry.getKey());
+                                it.remove();
+                            }
+                        }
+                    }
+                    default -> {
+                        continue;
+                    }
+                }
+                log.add(event);
+            }
+            if (log.size() > COMPACT_AFTER_EVENTS && log.size() > 2 * latestPutByPalletId.size()) {
+                compact();
+            }
+            lock.notifyAll();
+            return log.size();
+        }
+    }
+
+    // Every resync adds a full copy of a station's rows, so without this the log only grows.
+    private void compact() {
+        int before = log.size();
+        log.clear();
+        log.addAll(latestPutByPalletId.values());
+        // Sequence numbers start over, so the stations must read the log again from the start.
+        epoch = Math.max(System.currentTimeMillis(), epoch + 1);
+        System.out.println("Telserverlog ingekort van " + before + " naar " + log.size() + " gebeurtenissen.");
+    }
+
+    private String eventsSince(long since, long waitMillis) throws InterruptedException {
+        synchronized (lock) {
+            if (since > log.size()) {
+                // The station knows a longer log than this one: the server was restarted.
+                since = 0;
+            }
+            long deadline = System.currentTimeMillis() + waitMillis;
+            long remaining = waitMillis;
+            while (log.size() <= since && remaining > 0) {
+                lock.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            int from = (int) since;
+            int to = Math.min(log.size(), from + MAX_EVENTS_PER_REPLY);
+            StringBuilder text = new StringBuilder(64 + (to - from) * 64);
+            text.append("EPOCH\t").append(epoch).append('\t').append(log.size()).append('\t').append(instance).append('\n');
+            for (int i = from; i < to; i++) {
+                text.append(i + 1).append('\t').append(log.get(i)).append('\n');
+            }
+            return text.toString();
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> values = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return values;
+        }
+        for (String pair : raw.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                values.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return values;
+    }
+
+    private static void reply(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package RP.FitKit;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Connects a station to the {@link CountServer}. Local changes are queued and posted in batches;
+ * a background thread long-polls for the changes of the other stations and keeps a replicated map
+ * of the pallet IDs they counted, so a cross-station duplicate can be found without a round trip.
+ * When the server was restarted, the station sends its full state again.
+ * <p>
+ * Configured with COUNT_SERVER_URL and STATION_ID in the .env file; the system property
+ * {@code station.id} overrides the station, so several instances can run on one machine.
+ */
+class CountSyncClient implements AutoCloseable {
+    static final int DEFAULT_PORT = 8787;
+
+    /** A pallet that another station counted. */
+    record RemoteScan(String palletId, String station) {
+    }
+
+    interface Listener {
+        /** Called on the EDT with the pallets the other stations counted since the last call. */
+        void onRemoteScans(List<RemoteScan> scans);
+
+        /** Called on the EDT when the connection is made or lost, or the number of remote pallets changed. */
+        void onStatusChanged();
+    }
+
+    private static final long SEND_INTERVAL_MILLIS = 250;
+    private static final int MAX_BATCH = 1000;
+    private static final long POLL_WAIT_MILLIS = 20_000;
+    private static final long MAX_RETRY_MILLIS = 10_000;
+
+    private final URI server;
+    private final String station;
+    private final Supplier<List<SessionRow>> localRows;
+    private final Listener listener;
+    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final Map<String, String> remoteStationByPalletId = new ConcurrentHashMap<>();
+    // The station each remote pallet was last reported for. A server restart or another station's
+    // resync replays pallets that were already reported; those are not reported again.
+    private final Map<String, String> reportedStationByPalletId = new ConcurrentHashMap<>();
+    private final List<String> outbox = new ArrayList<>();
+    private final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "count-sync-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Thread poller = new Thread(this::pollLoop, "count-sync-poller");
+    private volatile boolean connected;
+    private volatile boolean closed;
+    private long epoch;
+    private long instance;
+    private long lastSeq;
+
+    /**
+     * @param localRows supplies the rows of this station; called on the EDT after a server restart
+     */
+    CountSyncClient(URI server, String station, Supplier<List<SessionRow>> localRows, Listener listener) {
+        this.server = server;
+        this.station = station;
+        this.localRows = localRows;
+        this.listener = listener;
+    }
+
+    /** Returns a client for the configured server, or null when no COUNT_SERVER_URL is set. */
+    static CountSyncClient fromEnvironment(Supplier<List<SessionRow>> localRows, Listener listener) {
+        Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+        String url = dotenv.get("COUNT_SERVER_URL", "");
+        if (url.isBlank()) {
+            return null;
+        }
+        String station = System.getProperty("station.id", dotenv.get("STATION_ID", ""));
+        if (station.isBlank()) {
+            try {
+                station = InetAddress.getLocalHost().getHostName();
+            } catch (IOException e) {
+                station = "station-" + ProcessHandle.current().pid();
+            }
+        }
+        return new CountSyncClient(URI.create(url.endsWith("/") ? url : url + "/"), station.trim(), localRows, listener);
+    }
+
+    void start() {
+        resync(localRows.get());
+        sender.scheduleWithFixedDelay(this::sendBatches, 0, SEND_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    String station() {
+        return station;
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    int remotePalletCount() {
+        return remoteStationByPalletId.size();
+    }
+
+    /** Returns the station that counted this pallet, or null when no other station did. */
+    String countedElsewhere(String palletId) {
+        return remoteStationByPalletId.get(palletId);
+    }
+
+    void rowPut(SessionRow row) {
+        queue("PUT\t" + row.palletId() + "\t" + row.quantity() + "\t" + row.article().replace('\t', ' ').replace('\n', ' '));
+    }
+
+    void rowRemoved(String palletId) {
+        queue("REMOVE\t" + palletId);
+    }
+
+    /**
+     * Replaces everything this station published, for example after a restore or a cleared session.
+     * Pallets of other stations are reported again from now on, as the local rows have changed.
+     */
+    void resync(List<SessionRow> rows) {
+        reportedStationByPalletId.clear();
+        publish(rows);
+    }
+
+    private void publish(List<SessionRow> rows) {
+        synchronized (outbox) {
+            outbox.clear();
+            outbox.add("CLEAR");
+        }
+        for (SessionRow row : rows) {
+            rowPut(row);
+        }
+    }
+
+    private void queue(String event) {
+        synchronized (outbox) {
+            outbox.add(event);
+        }
+    }
+
+    // Runs on the sender thread. Events stay in the outbox until the server accepted them.
+    private void sendBatches() {
+        while (!closed) {
+            List<String> batch;
+            synchronized (outbox) {
+                if (outbox.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(outbox.subList(0, Math.min(MAX_BATCH, outbox.size())));
+            }
+            try {
+                HttpResponse<String> response = http.send(HttpRequest.newBuilder(server.resolve("events?station=" + encode(station)))
+                                .timeout(Duration.ofSeconds(10))
+                                .POST(HttpRequest.BodyPublishers.ofString(String.join("\n", batch), StandardCharsets.UTF_8))
+                                .build(),
+                        HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+                if (response.statusCode() != 200) {
+                    throw new IOException("Telserver antwoordde met status " + response.statusCode());
+                }
+            } catch (IOException e) {
+                setConnected(false);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            synchronized (outbox) {
+                // A resync may have replaced the outbox while the batch was on its way.
+                if (outbox.size() >= batch.size() && outbox.subList(0, batch.size()).equals(batch)) {
+                    outbox.subList(0, batch.size()).clear();
+                }
+            }
+        }
+    }
+
+    private void pollLoop() {
+        long retryMillis = 500;
+        while (!closed) {
+            try {
+                HttpResponse<String> response = http.send(HttpRequest.newBuilder(server.resolve("events?since=" + lastSeq + "&wait=" + POLL_WAIT_MILLIS))
+                                .timeout(Duration.ofMillis(POLL_WAIT_MILLIS + 10_000))
+                                .GET()
+                                .build(),
+                        HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+                if (response.statusCode() != 200) {
+                    throw new IOException("Telserver antwoordde met status " + response.statusCode());
+                }
+                apply(response.body());
+                setConnected(true);
+                retryMillis = 500;
+            } catch (IOException | RuntimeException e) {
+                // Also a reply that is not from a count server; the poller keeps trying instead of dying.
+                if (e instanceof RuntimeException) {
+                    e.printStackTrace();
+                }
+                setConnected(false);
+                try {
+                    Thread.sleep(retryMillis);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                retryMillis = Math.min(MAX_RETRY_MILLIS, retryMillis * 2);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Runs on the poller thread.
+    private void apply(String body) throws IOException {
+        String[] lines = body.split("\n");
+        String[] header = lines[0].split("\t");
+        long serverEpoch = header.length >= 3 && header[0].equals("EPOCH") ? parseNumber(header[1]) : -1;
+        if (serverEpoch < 0) {
+            throw new IOException("Onverwacht antwoord van de telserver: " + lines[0]);
+        }
+        // A server that does not send its instance is a new one whenever the epoch changes.
+        long serverInstance = header.length > 3 ? parseNumber(header[3]) : serverEpoch;
+        if (epoch != serverEpoch) {
+            // A new epoch of the same instance is a compacted log, which still holds every pallet.
+            boolean restarted = instance != 0 && instance != serverInstance;
+            epoch = serverEpoch;
+            instance = serverInstance;
+            remoteStationByPalletId.clear();
+            if (restarted) {
+                // The new server knows nothing; this reply holds only what was sent since the restart.
+                SwingUtilities.invokeLater(() -> publish(localRows.get()));
+            }
+            if (lastSeq != 0) {
+                // The reply skips the new server's events up to our old sequence number; the next poll replays them all.
+                lastSeq = 0;
+                SwingUtilities.invokeLater(listener::onStatusChanged);
+                return;
+            }
+        }
+
+        List<RemoteScan> scans = new ArrayList<>();
+        int before = remoteStationByPalletId.size();
+        for (int i = 1; i < lines.length; i++) {
+            String[] fields = lines[i].split("\t", 6);
+            long seq = parseNumber(fields[0]);
+            // Events are numbered without gaps, so a damaged number is skipped instead of being fetched again.
+            lastSeq = seq >= 0 ? seq : lastSeq + 1;
+            if (seq < 0) {
+                continue;
+            }
+            if (fields.length < 3 || (fields.length < 4 && !fields[2].equals("CLEAR"))) {
+                continue;
+            }
+            String from = fields[1];
+            if (from.equals(station)) {
+                continue;
+            }
+            switch (fields[2]) {
+                case "PUT" -> {
+                    remoteStationByPalletId.put(fields[3], from);
+                    if (!from.equals(reportedStationByPalletId.put(fields[3], from))) {
+                        scans.add(new RemoteScan(fields[3], from));
+                    }
+                }
+                case "REMOVE" -> remoteStationByPalletId.remove(fields[3], from);
+                case "CLEAR" -> remoteStationByPalletId.values().removeIf(from::equals);
+                default -> {
+                }
+            }
+        }
+        if (!scans.isEmpty()) {
+            SwingUtilities.invokeLater(() -> listener.onRemoteScans(scans));
+        }
+        if (remoteStationByPalletId.size() != before) {
+            SwingUtilities.invokeLater(listener::onStatusChanged);
+        }
+    }
+
+    private void setConnected(boolean value) {
+        if (connected != value) {
+            connected = value;
+            SwingUtilities.invokeLater(listener::onStatusChanged);
+        }
+    }
+
+    // Returns -1 for anything that is not a non-negative number.
+    private static long parseNumber(String text) {
+        try {
+            return Math.max(-1, Long.parseLong(text));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        poller.interrupt();
+        // One last attempt to deliver what is still queued.
+        sender.execute(this::sendBatches);
+        sender.shutdown();
+        try {
+            sender.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closed = true;
+    }
+}
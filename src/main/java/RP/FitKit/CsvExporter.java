@@ -0,0 +1,51 @@
+package RP.FitKit;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Writes the counted rows in the CSV layout of the table: a header with the column names and one
+ * comma-separated line per row.
+ */
+final class CsvExporter {
+    private static final int FLUSH_THRESHOLD = 32 * 1024;
+    private static final int PROGRESS_INTERVAL = 250;
+    static final String HEADER = "Pallet ID,Artikel,Ingevoerd Aantal,Notities";
+
+    private CsvExporter() {
+    }
+
+    /**
+     * Writes the header and all rows and returns the number of rows written.
+     *
+     * @throws CancellationException when the progress callback asks to stop
+     */
+    static int export(Iterable<SessionRow> rows, Writer out, ExportProgress progress) throws IOException {
+        String newLine = System.lineSeparator();
+        StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD + 1024);
+        buffer.append(HEADER).append(newLine);
+
+        int row = 0;
+        for (SessionRow sessionRow : rows) {
+            appendRow(buffer, sessionRow).append(newLine);
+            row++;
+            if (buffer.length() >= FLUSH_THRESHOLD) {
+                ExactXmlExporter.flush(buffer, out);
+            }
+            if (row % PROGRESS_INTERVAL == 0 && !progress.rowsWritten(row)) {
+                throw new CancellationException();
+            }
+        }
+        ExactXmlExporter.flush(buffer, out);
+        progress.rowsWritten(row);
+        return row;
+    }
+
+    static StringBuilder appendRow(StringBuilder buffer, SessionRow row) {
+        return buffer.append(row.palletId()).append(',')
+                .append(row.article()).append(',')
+                .append(row.quantity()).append(',')
+                .append(row.notes());
+    }
+}
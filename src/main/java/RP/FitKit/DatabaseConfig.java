@@ -0,0 +1,20 @@
+package RP.FitKit;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+/**
+ * Database settings from the .env file (DB_SERVER, DB_PORT, DB_DATABASE, DB_USER, DB_PASSWORD).
+ */
+record DatabaseConfig(String url, String user, String password) {
+
+    static DatabaseConfig load() {
+        Dotenv dotenv = Dotenv.load();
+        String url = String.format("jdbc:sqlserver://%s:%s;databaseName=%s;encrypt=true;trustServerCertificate=true;",
+                dotenv.get("DB_SERVER"), dotenv.get("DB_PORT"), dotenv.get("DB_DATABASE"));
+        return new DatabaseConfig(url, dotenv.get("DB_USER"), dotenv.get("DB_PASSWORD"));
+    }
+
+    ConnectionPool createPool(int maxConnections, int queryTimeoutSeconds) {
+        return new ConnectionPool(url, user, password, maxConnections, queryTimeoutSeconds);
+    }
+}
@@ -0,0 +1,268 @@
+package RP.FitKit;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Streams the counted rows as an eExact FinEntry document: a credit line on 3999 and a debit line
+ * on 3550 per row. The fixed parts of every line are prepared once per export, text is escaped in
+ * a single pass, and output is collected in one reused buffer that is flushed in large chunks.
+ * <p>
+ * The aggregated variant books one line pair per item code instead of per pallet and lists the
+ * pallets behind each total in a separate CSV file. The delta variant only books the corrections
+ * against a previous export.
+ * <p>
+ * Item codes come from an {@link ArticleDictionary}, so each distinct article is parsed once; the
+ * table model's dictionary can be passed in to reuse the codes it already has.
+ */
+final class ExactXmlExporter {
+    private static final int FLUSH_THRESHOLD = 32 * 1024;
+    private static final int PROGRESS_INTERVAL = 250;
+
+    private static final String LINE_START = "      <FinEntryLine number=\"";
+    private static final String CREDIT_ATTRIBUTES = "\" type=\"N\" subtype=\"G\" code=\"1\" linecode=\"B\" transactiontype=\"100\">\n";
+    private static final String DEBIT_ATTRIBUTES = "\" type=\"N\" subtype=\"G\" code=\"2\" linecode=\"B\" transactiontype=\"100\">\n";
+    private static final String ITEM_TO_QUANTITY = "\"></Item>\n"
+            + "        <Warehouse code=\"1\"></Warehouse>\n"
+            + "        <Project code=\"\"></Project>\n"
+            + "        <Quantity>";
+    private static final String AMOUNT = "        <Amount>\n"
+            + "          <Currency code=\"EUR\"/>\n"
+            + "          <Debit>0</Debit>\n"
+            + "          <Credit>0</Credit>\n"
+            + "          <VAT code=\"0\" type=\"B\" vattype=\"N\"></VAT>\n"
+            + "        </Amount>\n";
+    private static final String CREDIT_TAIL = "</Quantity>\n" + AMOUNT + "      </FinEntryLine>\n";
+    private static final String DEBIT_TO_REFERENCE = "</Quantity>\n" + AMOUNT
+            + "        <FinReferences TransactionOrigin=\"N\">\n"
+            + "          <YourRef>";
+
+    private final String entryId;
+    private final ArticleDictionary articles;
+    private final String creditHead;
+    private final String debitHead;
+    private final String debitTail;
+
+    ExactXmlExporter(LocalDate date, String entryId) {
+        this(date, entryId, new ArticleDictionary());
+    }
+
+    ExactXmlExporter(LocalDate date, String entryId, ArticleDictionary articles) {
+        String formattedDate = date.format(DateTimeFormatter.ISO_LOCAL_DATE);
+        this.entryId = entryId;
+        this.articles = articles;
+        this.creditHead = lineHead(formattedDate, "3999");
+        this.debitHead = lineHead(formattedDate, "3550");
+        this.debitTail = "</YourRef>\n"
+                + "          <DocumentDate>" + formattedDate + "</DocumentDate>\n"
+                + "          <ReportDate>" + formattedDate + "</ReportDate>\n"
+                + "        </FinReferences>\n"
+                + "      </FinEntryLine>\n";
+    }
+
+    static String newEntryId() {
+        return String.valueOf(System.currentTimeMillis()).substring(3);
+    }
+
+    /**
+     * Writes the whole document and returns the number of rows written.
+     *
+     * @throws CancellationException when the progress callback asks to stop
+     */
+    int export(Iterable<SessionRow> rows, Writer out, ExportProgress progress) throws IOException {
+        StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD + 4096);
+        writeHeader(buffer);
+
+        int row = 0;
+        for (SessionRow sessionRow : rows) {
+            appendLinePair(buffer, row * 2 + 1, itemCode(sessionRow.article()), sessionRow.quantity(), sessionRow.palletId());
+            row++;
+            if (buffer.length() >= FLUSH_THRESHOLD) {
+                flush(buffer, out);
+            }
+            if (row % PROGRESS_INTERVAL == 0 && !progress.rowsWritten(row)) {
+                throw new CancellationException();
+            }
+        }
+
+        writeFooter(buffer);
+        flush(buffer, out);
+        progress.rowsWritten(row);
+        return row;
+    }
+
+    /**
+     * Writes one line pair per item code with the summed quantity, in order of first appearance.
+     * The pallets are streamed to {@code palletList} during the same pass over the rows; the debit
+     * line's reference only states how many pallets the total covers. Returns the number of items.
+     *
+     * @throws CancellationException when the progress callback asks to stop
+     */
+    int exportAggregated(Iterable<SessionRow> rows, Writer out, Writer palletList, ExportProgress progress) throws IOException {
+        Map<String, ItemTotal> totals = new LinkedHashMap<>();
+        StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD + 4096);
+        buffer.append("Artikelcode,Pallet ID,Aantal\n");
+
+        int row = 0;
+        for (SessionRow sessionRow : rows) {
+            String itemCode = itemCode(sessionRow.article());
+            ItemTotal total = totals.computeIfAbsent(itemCode, code -> new ItemTotal());
+            total.quantity += sessionRow.quantity();
+            total.pallets++;
+            buffer.append(itemCode).append(',').append(sessionRow.palletId()).append(',').append(sessionRow.quantity()).append('\n');
+            row++;
+            if (buffer.length() >= FLUSH_THRESHOLD) {
+                flush(buffer, palletList);
+            }
+            if (row % PROGRESS_INTERVAL == 0 && !progress.rowsWritten(row)) {
+                throw new CancellationException();
+            }
+        }
+        flush(buffer, palletList);
+
+        writeHeader(buffer);
+        int item = 0;
+        for (Map.Entry<String, ItemTotal> entry : totals.entrySet()) {
+            ItemTotal total = entry.getValue();
+            appendLinePair(buffer, item * 2 + 1, entry.getKey(), total.quantity, total.pallets + " pallets");
+            item++;
+            if (buffer.length() >= FLUSH_THRESHOLD) {
+                flush(buffer, out);
+            }
+        }
+        writeFooter(buffer);
+        flush(buffer, out);
+        progress.rowsWritten(row);
+        return item;
+    }
+
+    /**
+     * Writes one correcting line pair per changed pallet: the full quantity for a new pallet, the
+     * negated quantity for a removed one and the difference for a changed count. When the item code
+     * itself changed, the old code is reversed and the new code booked. Returns the number of pairs.
+     *
+     * @throws CancellationException when the progress callback asks to stop
+     */
+    int exportChanges(Iterable<ExportBaseline.Change> changes, Writer out, ExportProgress progress) throws IOException {
+        StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD + 4096);
+        writeHeader(buffer);
+
+        int pairs = 0;
+        int row = 0;
+        for (ExportBaseline.Change change : changes) {
+            String previousCode = change.isNew() ? null : itemCode(change.previousArticle());
+            String itemCode = change.isRemoved() ? null : itemCode(change.article());
+            if (previousCode != null && previousCode.equals(itemCode)) {
+                appendLinePair(buffer, pairs++ * 2 + 1, itemCode, (long) change.quantity() - change.previousQuantity(), change.palletId());
+            } else {
+                if (previousCode != null) {
+                    appendLinePair(buffer, pairs++ * 2 + 1, previousCode, -(long) change.previousQuantity(), change.palletId());
+                }
+                if (itemCode != null) {
+                    appendLinePair(buffer, pairs++ * 2 + 1, itemCode, change.quantity(), change.palletId());
+                }
+            }
+            row++;
+            if (buffer.length() >= FLUSH_THRESHOLD) {
+                flush(buffer, out);
+            }
+            if (row % PROGRESS_INTERVAL == 0 && !progress.rowsWritten(row)) {
+                throw new CancellationException();
+            }
+        }
+
+        writeFooter(buffer);
+        flush(buffer, out);
+        progress.rowsWritten(row);
+        return pairs;
+    }
+
+    void writeHeader(StringBuilder buffer) {
+        buffer.append("<?xml version=\"1.0\"?>\n")
+                .append("<eExact xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:noNamespaceSchemaLocation=\"eExact-Schema.xsd\">\n")
+                .append("  <FinEntries>\n")
+                .append("    <FinEntry entry=\"").append(entryId).append("\">\n")
+                .append("      <Journal code=\"090\" type=\"M\">\n")
+                .append("        <Description>Memoriaal JR</Description>\n")
+                .append("      </Journal>\n");
+    }
+
+    void writeFooter(StringBuilder buffer) {
+        buffer.append("    </FinEntry>\n")
+                .append("  </FinEntries>\n")
+                .append("</eExact>\n");
+    }
+
+    // The debit line books the opposite quantity and carries the reference (normally the pallet ID).
+    void appendLinePair(StringBuilder buffer, int firstLineNumber, String itemCode, long quantity, String reference) {
+        buffer.append(LINE_START).append(firstLineNumber).append(CREDIT_ATTRIBUTES).append(creditHead);
+        appendEscaped(buffer, itemCode);
+        buffer.append(ITEM_TO_QUANTITY).append(quantity).append(CREDIT_TAIL);
+
+        buffer.append(LINE_START).append(firstLineNumber + 1).append(DEBIT_ATTRIBUTES).append(debitHead);
+        appendEscaped(buffer, itemCode);
+        buffer.append(ITEM_TO_QUANTITY);
+        if (quantity >= 0) {
+            buffer.append('-').append(quantity);
+        } else {
+            buffer.append(-quantity);
+        }
+        buffer.append(DEBIT_TO_REFERENCE);
+        appendEscaped(buffer, reference);
+        buffer.append(debitTail);
+    }
+
+    static void flush(StringBuilder buffer, Writer out) throws IOException {
+        out.append(buffer);
+        buffer.setLength(0);
+    }
+
+    String itemCode(String articleName) {
+        return articleName == null ? "" : articles.itemCodeOf(articleName);
+    }
+
+    static String extractItemCode(String articleName) {
+        if (articleName == null) {
+            return "";
+        }
+        int startIndex = articleName.lastIndexOf('(');
+        int endIndex = articleName.lastIndexOf(')');
+
+        if (startIndex != -1 && endIndex != -1 && startIndex < endIndex) {
+            return articleName.substring(startIndex + 1, endIndex);
+        }
+        return "";
+    }
+
+    static void appendEscaped(StringBuilder buffer, String text) {
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&' -> buffer.append("&amp;");
+                case '<' -> buffer.append("&lt;");
+                case '>' -> buffer.append("&gt;");
+                case '"' -> buffer.append("&quot;");
+                case '\'' -> buffer.append("&apos;");
+                default -> buffer.append(c);
+            }
+        }
+    }
+
+    private static final class ItemTotal {
+        long quantity;
+        int pallets;
+    }
+
+    private static String lineHead(String formattedDate, String glAccount) {
+        return "        <Date>" + formattedDate + "</Date>\n"
+                + "        <GLAccount code=\"" + glAccount + "\"></GLAccount>\n"
+                + "        <Description>Omschrijving van telling</Description>\n"
+                + "        <Costcenter code=\"001CC001\"></Costcenter>\n"
+                + "        <Item code=\"";
+    }
+}
@@ -0,0 +1,206 @@
+package RP.FitKit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * What the last successful Exact export of this session contained, and which pallets changed since.
+ * <p>
+ * The baseline holds the article and quantity of every exported pallet together with a watermark
+ * (export number and time). Every add, edit and delete in the table marks the pallet as changed
+ * with an increasing sequence number. An export records the sequence at the moment its rows were
+ * taken, so changes made while it is running stay pending for the next delta. The baseline is kept
+ * on disk; the changed set is rebuilt from it when a session is loaded.
+ */
+final class ExportBaseline {
+    private static final int MAGIC = 0x494E5642; // "INVB"
+    private static final int VERSION = 1;
+
+    record Watermark(int exportNumber, Instant exportedAt) {
+    }
+
+    /** A correction for one pallet; the article is null on the side where the pallet does not exist. */
+    record Change(String palletId, String previousArticle, int previousQuantity, String article, int quantity) {
+        boolean isNew() {
+            return previousArticle == null;
+        }
+
+        boolean isRemoved() {
+            return article == null;
+        }
+    }
+
+    private record Exported(String article, int quantity) {
+    }
+
+    private final Path file;
+    private final Map<String, Exported> exported = new HashMap<>();
+    private final LinkedHashMap<String, Long> changedAt = new LinkedHashMap<>();
+    private long sequence;
+    private Watermark watermark;
+
+    ExportBaseline(Path file) {
+        this.file = file;
+    }
+
+    synchronized void load() throws IOException {
+        exported.clear();
+        changedAt.clear();
+        watermark = null;
+        if (!Files.exists(file)) {
+            return;
+        }
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file)), crc))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                throw new IOException("Onbekend formaat van de exportstand: " + file);
+            }
+            Watermark loaded = new Watermark(in.readInt(), Instant.ofEpochMilli(in.readLong()));
+            int count = in.readInt();
+            Map<String, Exported> rows = new HashMap<>(Math.max(16, count * 4 / 3));
+            for (int i = 0; i < count; i++) {
+                rows.put(in.readUTF(), new Exported(in.readUTF(), in.readInt()));
+            }
+            long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("Controlegetal van de exportstand klopt niet: " + file);
+            }
+            exported.putAll(rows);
+            watermark = loaded;
+        }
+    }
+
+    synchronized Watermark watermark() {
+        return watermark;
+    }
+
+    synchronized void rowChanged(String palletId) {
+        changedAt.put(palletId, ++sequence);
+    }
+
+    synchronized int changedCount() {
+        return changedAt.size();
+    }
+
+    /** The sequence to pass to a commit for rows taken now. */
+    synchronized long mark() {
+        return sequence;
+    }
+
+    /** Marks every pallet whose current row differs from the baseline, e.g. after loading a session. */
+    synchronized void reconcile(List<SessionRow> rows) {
+        changedAt.clear();
+        Set<String> present = new HashSet<>(Math.max(16, rows.size() * 4 / 3));
+        for (SessionRow row : rows) {
+            present.add(row.palletId());
+            Exported previous = exported.get(row.palletId());
+            if (previous == null || previous.quantity() != row.quantity() || !previous.article().equals(row.article())) {
+                changedAt.put(row.palletId(), ++sequence);
+            }
+        }
+        for (String palletId : exported.keySet()) {
+            if (!present.contains(palletId)) {
+                changedAt.put(palletId, ++sequence);
+            }
+        }
+    }
+
+    /** The corrections that bring the last export in line with {@code rows}, in order of change. */
+    synchronized List<Change> changes(List<SessionRow> rows) {
+        Map<String, SessionRow> current = new HashMap<>(Math.max(16, changedAt.size() * 4 / 3));
+        for (SessionRow row : rows) {
+            if (changedAt.containsKey(row.palletId())) {
+                current.put(row.palletId(), row);
+            }
+        }
+        List<Change> changes = new ArrayList<>();
+        for (String palletId : changedAt.keySet()) {
+            Exported previous = exported.get(palletId);
+            SessionRow row = current.get(palletId);
+            if (previous == null && row == null) {
+                continue;
+            }
+            if (previous != null && row != null && previous.quantity() == row.quantity() && previous.article().equals(row.article())) {
+                continue;
+            }
+            changes.add(new Change(palletId,
+                    previous == null ? null : previous.article(), previous == null ? 0 : previous.quantity(),
+                    row == null ? null : row.article(), row == null ? 0 : row.quantity()));
+        }
+        return changes;
+    }
+
+    /** Records a full export of {@code rows}, taken at {@code mark}. */
+    synchronized void commitFull(List<SessionRow> rows, long mark) throws IOException {
+        exported.clear();
+        for (SessionRow row : rows) {
+            exported.put(row.palletId(), new Exported(row.article(), row.quantity()));
+        }
+        advance(mark);
+    }
+
+    /** Records a delta export of {@code changes}, taken at {@code mark}. */
+    synchronized void commitChanges(List<Change> changes, long mark) throws IOException {
+        for (Change change : changes) {
+            if (change.isRemoved()) {
+                exported.remove(change.palletId());
+            } else {
+                exported.put(change.palletId(), new Exported(change.article(), change.quantity()));
+            }
+        }
+        advance(mark);
+    }
+
+    synchronized void reset() throws IOException {
+        exported.clear();
+        changedAt.clear();
+        watermark = null;
+        Files.deleteIfExists(file);
+    }
+
+    private void advance(long mark) throws IOException {
+        changedAt.values().removeIf(changed -> changed <= mark);
+        watermark = new Watermark(watermark == null ? 1 : watermark.exportNumber() + 1, Instant.now());
+        try {
+            save();
+        } catch (IOException e) {
+            throw new IOException("De export is geschreven, maar de exportstand kon niet worden opgeslagen: " + e.getMessage(), e);
+        }
+    }
+
+    private void save() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)), crc))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(watermark.exportNumber());
+            out.writeLong(watermark.exportedAt().toEpochMilli());
+            out.writeInt(exported.size());
+            for (Map.Entry<String, Exported> entry : exported.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().article());
+                out.writeInt(entry.getValue().quantity());
+            }
+            out.writeLong(crc.getValue());
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
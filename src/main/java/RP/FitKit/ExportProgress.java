@@ -0,0 +1,8 @@
+package RP.FitKit;
+
+interface ExportProgress {
+    ExportProgress NONE = rowsWritten -> true;
+
+    // Called every few hundred rows from the exporting thread; returning false cancels the export.
+    boolean rowsWritten(int rowsWritten);
+}
@@ -1,28 +1,35 @@
 package RP.FitKit;
 
-import io.github.cdimascio.dotenv.Dotenv;
-
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.TableModelEvent;
-import javax.swing.table.DefaultTableModel;
-import javax.swing.table.TableCellRenderer;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.sql.*;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import javax.swing.Timer;
 
 public class InventoryApp extends JFrame {
@@ -33,37 +40,72 @@ public class InventoryApp extends JFrame {
     private static final Color COLOR_INFO = new Color(0, 120, 215);
     private static final Color COLOR_BACKGROUND = new Color(245, 245, 245);
     private static final Color COLOR_TABLE_HEADER = new Color(220, 220, 220);
-    private static final Color COLOR_TABLE_ALT_ROW = new Color(235, 245, 255);
-    private static final Color COLOR_HIGHLIGHT = new Color(255, 255, 204);
-    private static final Color COLOR_EDITED = new Color(255, 224, 178);
     private static final Color COLOR_PANEL_BG = Color.WHITE;
     private static final Path SESSION_FILE_PATH = Paths.get(System.getProperty("java.io.tmpdir"), "inventory_session.dat");
-
-    private Connection dbConnection;
+    private static final Path SESSION_JOURNAL_PATH = Paths.get(System.getProperty("java.io.tmpdir"), "inventory_session.journal");
+    private static final Path PENDING_QUEUE_PATH = Paths.get(System.getProperty("java.io.tmpdir"), "inventory_pending.dat");
+    private static final Path EXPORT_BASELINE_PATH = Paths.get(System.getProperty("java.io.tmpdir"), "inventory_export_baseline.dat");
+    private static final String PENDING_LOOKUP_TEXT = "--- Wacht op opzoeken ---";
+    private static final int LABEL_CACHE_SIZE = 250_000;
+    private static final Duration LABEL_CACHE_TTL = Duration.ofHours(12);
+    private static final int DB_POOL_SIZE = 4;
+    private static final int DB_QUERY_TIMEOUT_SECONDS = 10;
+    private static final int SCAN_BUFFER_CAPACITY = 512;
+    private static final Duration SCAN_REPEAT_WINDOW = Duration.ofMillis(1500);
+    private static final int SEARCH_DELAY_MILLIS = 150;
+    // Keeps a journal record of the row well below its size limit.
+    private static final int MAX_NOTE_LENGTH = 10_000;
+
+    private ConnectionPool connectionPool;
+    private PalletRepository palletRepository;
+    private PalletLabelCache labelCache;
+    private PalletLookupPipeline lookupPipeline;
+    private PendingLookupQueue pendingQueue;
+    private OfflineResolver offlineResolver;
+    private SessionStore sessionStore;
+    private ScanInputBuffer scanBuffer;
+    private ExportBaseline exportBaseline;
+    private boolean isOffline = false;
 
     private JPanel startPanel;
     private JPanel mainPanel;
     private JTextField palletIdField;
     private JLabel quantityLabel;
     private JLabel productNameLabel;
-    private DefaultTableModel tableModel;
-    private JTable inventoryTable;
+    private JLabel pendingLookupsLabel;
+    private InventoryTableModel tableModel;
+    private InventoryTable inventoryTable;
     private JButton saveButton;
     private String displayedPalletId;
-    private int lastInsertedRow = -1;
     private Set<String> editedPalletIds = new HashSet<>();
     private JLabel editedCountLabel;
+    private JLabel revalidationLabel;
+    private JLabel countSyncLabel;
+    private CountSyncClient countSync;
+    private final Map<String, String> driftedPalletIds = new HashMap<>();
+    private SessionRevalidator revalidator;
     private JButton startButton;
     private JPanel loadingPanel;
     private JLabel slowConnectionLabel;
     private Timer connectionTimer;
     private Timer discoTimer;
+    private Timer scanRateTimer;
+    private JLabel scanFeedbackLabel;
     private boolean isDiscoMode = false;
     private JPanel bottomPanel;
     private JPanel legendPanel;
+    private JPanel diagnosticsPanel;
+    private JTextArea diagnosticsArea;
+    private Timer diagnosticsTimer;
     private JLabel summaryPalletCountLabel;
     private JLabel summaryTotalQuantityLabel;
     private JLabel summaryUniqueItemsLabel;
+    private JTextField searchField;
+    private JCheckBox searchFilterCheckBox;
+    private JLabel searchResultLabel;
+    private Timer searchTimer;
+    private Timer searchRefreshTimer;
+    private SessionSearchIndex.Matches searchMatches;
 
     public InventoryApp() {
         setTitle("Voorraadtelling Prototype (Java)");
@@ -152,11 +194,9 @@ public class InventoryApp extends JFrame {
                 try {
                     boolean success = get();
                     if (success) {
-                        createMainScreen();
-                        setContentPane(mainPanel);
-                        revalidate();
-                        repaint();
-                        SwingUtilities.invokeLater(() -> palletIdField.requestFocusInWindow());
+                        showMainScreen(false);
+                    } else if (connectionPool != null && confirmOfflineMode()) {
+                        showMainScreen(true);
                     } else {
                         JOptionPane.showMessageDialog(InventoryApp.this,
                                 "Kon geen verbinding maken met de database. Controleer de instellingen en netwerkverbinding.",
@@ -181,6 +221,25 @@ public class InventoryApp extends JFrame {
         worker.execute();
     }
 
+    private boolean confirmOfflineMode() {
+        int choice = JOptionPane.showConfirmDialog(this,
+                "Kon geen verbinding maken met de database.\n"
+                        + "Wil je offline verder tellen? Scans worden bewaard en opgezocht zodra de verbinding terug is.",
+                "Offline Tellen", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+        return choice == JOptionPane.YES_OPTION;
+    }
+
+    private void showMainScreen(boolean offline) {
+        createMainScreen();
+        setOffline(offline);
+        startCountSync();
+        startRevalidation(false);
+        setContentPane(mainPanel);
+        revalidate();
+        repaint();
+        SwingUtilities.invokeLater(() -> palletIdField.requestFocusInWindow());
+    }
+
     private void createMainScreen() {
         mainPanel = new JPanel(new BorderLayout(10, 10));
         mainPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
@@ -224,7 +283,8 @@ public class InventoryApp extends JFrame {
         gbc.gridx = 1; gbc.gridy = 0; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
         palletIdField = new JTextField();
         palletIdField.setFont(FONT_LABEL);
-        palletIdField.addActionListener(e -> fetchProductInfo());
+        palletIdField.addActionListener(e -> onScanEntered());
+        scanBuffer = new ScanInputBuffer(SCAN_BUFFER_CAPACITY, SCAN_REPEAT_WINDOW, this::fetchProductInfo, this::showScanRejected);
         inputPanel.add(palletIdField, gbc);
 
         gbc.gridx = 0; gbc.gridy = 1; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
@@ -247,6 +307,22 @@ public class InventoryApp extends JFrame {
         quantityLabel.setForeground(COLOR_INFO);
         inputPanel.add(quantityLabel, gbc);
 
+        gbc.gridx = 1; gbc.gridy = 3;
+        pendingLookupsLabel = new JLabel(" ");
+        pendingLookupsLabel.setFont(new Font("Helvetica", Font.ITALIC, 12));
+        pendingLookupsLabel.setForeground(Color.GRAY);
+        inputPanel.add(pendingLookupsLabel, gbc);
+
+        gbc.gridx = 1; gbc.gridy = 4;
+        scanFeedbackLabel = new JLabel(" ");
+        scanFeedbackLabel.setFont(new Font("Helvetica", Font.ITALIC, 12));
+        scanFeedbackLabel.setForeground(new Color(200, 0, 0));
+        inputPanel.add(scanFeedbackLabel, gbc);
+
+        // Lets the scan rate fall back when scanning stops.
+        scanRateTimer = new Timer(5000, e -> updatePendingLookups());
+        scanRateTimer.start();
+
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         buttonPanel.setBackground(COLOR_PANEL_BG);
         saveButton = new JButton("Opslaan");
@@ -273,18 +349,22 @@ public class InventoryApp extends JFrame {
         exportXmlButton.setOpaque(true);
         buttonPanel.add(exportXmlButton);
 
+        JButton deltaExportButton = new JButton("Delta exporteren");
+        deltaExportButton.setFont(FONT_BUTTON);
+        deltaExportButton.addActionListener(e -> exportDelta());
+        buttonPanel.add(deltaExportButton);
+
+        JButton chunkedExportButton = new JButton("Gesplitst exporteren");
+        chunkedExportButton.setFont(FONT_BUTTON);
+        chunkedExportButton.addActionListener(e -> exportInChunks());
+        buttonPanel.add(chunkedExportButton);
+
         JPanel topPanel = new JPanel(new BorderLayout());
         topPanel.setBackground(COLOR_PANEL_BG);
         topPanel.add(titledInputPanel, BorderLayout.CENTER);
         topPanel.add(buttonPanel, BorderLayout.SOUTH);
 
-        String[] columnNames = {"Pallet ID", "Artikel", "Ingevoerd Aantal", "Notities"};
-        tableModel = new DefaultTableModel(columnNames, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return column == 2 || column == 3;
-            }
-
+        tableModel = new InventoryTableModel() {
             @Override
             public void setValueAt(Object aValue, int row, int column) {
                 if (column == 2) {
@@ -309,53 +389,46 @@ public class InventoryApp extends JFrame {
                             }
                         }
 
-                        super.setValueAt(aValue, row, column);
-                        String palletId = (String) getValueAt(row, 0);
+                        super.setValueAt(newValue, row, column);
+                        String palletId = getPalletId(row);
                         editedPalletIds.add(palletId);
+                        clearDrift(row, palletId);
                         updateEditedCount();
-                        saveTableState();
-                        updateSummaryPanel();
+                        persistRow(row);
+                        sessionStore.rowEdited(palletId);
                     } catch (NumberFormatException e) {
                         JOptionPane.showMessageDialog(InventoryApp.this, "Voer een geldig getal in voor het aantal.", "Ongeldige Invoer", JOptionPane.WARNING_MESSAGE);
                     }
                 } else {
+                    if (aValue != null && aValue.toString().length() > MAX_NOTE_LENGTH) {
+                        JOptionPane.showMessageDialog(InventoryApp.this, "Een notitie mag maximaal " + MAX_NOTE_LENGTH + " tekens lang zijn.", "Ongeldige Invoer", JOptionPane.WARNING_MESSAGE);
+                        return;
+                    }
                     super.setValueAt(aValue, row, column);
-                    saveTableState();
-                }
-            }
-        };
-        inventoryTable = new JTable(tableModel) {
-            @Override
-            public Component prepareRenderer(TableCellRenderer renderer, int row, int column) {
-                Component c = super.prepareRenderer(renderer, row, column);
-                if (isRowSelected(row)) {
-                    return c;
-                }
-                String palletId = (String) getValueAt(row, 0);
-
-                if (row == lastInsertedRow) {
-                    c.setBackground(COLOR_HIGHLIGHT);
-                } else if (column == 2 && editedPalletIds.contains(palletId)) {
-                    c.setBackground(COLOR_EDITED);
-                } else {
-                    c.setBackground(row % 2 == 0 ? COLOR_TABLE_ALT_ROW : Color.WHITE);
+                    persistRow(row);
                 }
-                return c;
             }
-
         };
+        inventoryTable = new InventoryTable(tableModel, driftedPalletIds);
         tableModel.addTableModelListener(e -> {
             if (e.getType() == TableModelEvent.UPDATE) {
                 int row = e.getFirstRow();
                 int column = e.getColumn();
                 if (column == 2) {
-                    String palletId = (String) tableModel.getValueAt(row, 0);
+                    String palletId = tableModel.getPalletId(row);
                     editedPalletIds.add(palletId);
+                    tableModel.setFlag(row, InventoryTableModel.FLAG_EDITED, true);
                     updateEditedCount();
                     updateSummaryPanel();
                 }
             }
         });
+        tableModel.addTableModelListener(e -> {
+            // Scans keep coming in while a search is shown; its results follow once they pause.
+            if (searchMatches != null) {
+                searchRefreshTimer.restart();
+            }
+        });
 
         inventoryTable.setRowHeight(28);
         inventoryTable.setFont(FONT_LABEL);
@@ -366,30 +439,200 @@ public class InventoryApp extends JFrame {
         scrollPane.setBorder(BorderFactory.createLineBorder(COLOR_TABLE_HEADER));
 
 
+        JPanel tablePanel = new JPanel(new BorderLayout(0, 5));
+        tablePanel.setOpaque(false);
+        tablePanel.add(createSearchPanel(), BorderLayout.NORTH);
+        tablePanel.add(scrollPane, BorderLayout.CENTER);
+
         mainPanel.add(topPanel, BorderLayout.NORTH);
-        mainPanel.add(scrollPane, BorderLayout.CENTER);
+        mainPanel.add(tablePanel, BorderLayout.CENTER);
         setupBottomPanel();
         mainPanel.add(bottomPanel, BorderLayout.SOUTH);
+        sessionStore = new SessionStore(SESSION_FILE_PATH, SESSION_JOURNAL_PATH, this::captureSessionState);
+        exportBaseline = new ExportBaseline(EXPORT_BASELINE_PATH);
+        try {
+            exportBaseline.load();
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "De stand van de vorige export kon niet worden gelezen.\nDe eerstvolgende delta-export bevat daarom alle pallets.", "Exportstand", JOptionPane.WARNING_MESSAGE);
+        }
         loadTableState();
         updateSummaryPanel();
+        startOfflineResolver();
+    }
+
+    private JPanel createSearchPanel() {
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        searchPanel.setOpaque(false);
+
+        JLabel searchLabel = new JLabel("Zoeken:");
+        searchLabel.setFont(FONT_LABEL);
+        searchPanel.add(searchLabel);
+
+        searchField = new JTextField(22);
+        searchField.setFont(FONT_LABEL);
+        searchField.setToolTipText("Begin van een pallet ID, of woorden uit het artikel of de opmerkingen. Enter: volgende, Esc: terug naar scannen.");
+        // Searches when typing pauses instead of on every key, so scans in between are not held up.
+        searchTimer = new Timer(SEARCH_DELAY_MILLIS, e -> runSearch(true));
+        searchTimer.setRepeats(false);
+        searchRefreshTimer = new Timer(SEARCH_DELAY_MILLIS, e -> runSearch(false));
+        searchRefreshTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+        });
+        searchField.addActionListener(e -> {
+            if (searchTimer.isRunning()) {
+                searchTimer.stop();
+                runSearch(true);
+            } else {
+                showNextMatch();
+            }
+        });
+        searchField.getInputMap(JComponent.WHEN_FOCUSED).put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "clearSearch");
+        searchField.getActionMap().put("clearSearch", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                clearSearch();
+            }
+        });
+        searchPanel.add(searchField);
+
+        JButton nextMatchButton = new JButton("Volgende");
+        nextMatchButton.setFont(FONT_BUTTON);
+        nextMatchButton.setFocusable(false);
+        nextMatchButton.addActionListener(e -> showNextMatch());
+        searchPanel.add(nextMatchButton);
+
+        searchFilterCheckBox = new JCheckBox("Alleen resultaten tonen");
+        searchFilterCheckBox.setFont(FONT_LABEL);
+        searchFilterCheckBox.setOpaque(false);
+        searchFilterCheckBox.setFocusable(false);
+        searchFilterCheckBox.addActionListener(e -> applySearchFilter());
+        searchPanel.add(searchFilterCheckBox);
+
+        searchResultLabel = new JLabel(" ");
+        searchResultLabel.setFont(new Font("Helvetica", Font.ITALIC, 12));
+        searchPanel.add(searchResultLabel);
+        return searchPanel;
+    }
+
+    /**
+     * Looks the query up in the search index of the table model, which takes well under a
+     * millisecond, so it runs on the EDT between scans.
+     *
+     * @param showFirst whether to move the selection to the first match from the selected row on
+     */
+    private void runSearch(boolean showFirst) {
+        long start = System.nanoTime();
+        String query = searchField.getText();
+        searchMatches = query.isBlank() ? null : tableModel.search(query);
+        LatencyRecorder.recordSince(LatencyRecorder.Stage.SEARCH, start);
+
+        if (searchMatches == null) {
+            searchResultLabel.setText(" ");
+        } else {
+            int count = searchMatches.count();
+            searchResultLabel.setText(count == 0 ? "Geen resultaten" : count == 1 ? "1 resultaat" : count + " resultaten");
+        }
+        applySearchFilter();
+        if (showFirst && searchMatches != null) {
+            int selected = inventoryTable.getSelectedRow();
+            showMatchFrom(selected < 0 ? 0 : inventoryTable.convertRowIndexToModel(selected));
+        }
+    }
+
+    private void showNextMatch() {
+        if (searchMatches == null) {
+            return;
+        }
+        int selected = inventoryTable.getSelectedRow();
+        showMatchFrom(selected < 0 ? 0 : inventoryTable.convertRowIndexToModel(selected) + 1);
+    }
+
+    private void showMatchFrom(int row) {
+        int match = tableModel.nextMatch(searchMatches, row);
+        if (match >= 0) {
+            inventoryTable.showRow(match);
+        }
+    }
+
+    private void applySearchFilter() {
+        inventoryTable.setSearchFilter(searchFilterCheckBox.isSelected() ? searchMatches : null);
+    }
+
+    private void clearSearch() {
+        searchField.setText("");
+        // Clearing the field starts the delayed search again.
+        searchTimer.stop();
+        searchRefreshTimer.stop();
+        searchMatches = null;
+        searchResultLabel.setText(" ");
+        searchFilterCheckBox.setSelected(false);
+        applySearchFilter();
+        palletIdField.requestFocusInWindow();
+    }
+
+    private void startOfflineResolver() {
+        try {
+            pendingQueue = new PendingLookupQueue(PENDING_QUEUE_PATH);
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Kon de wachtrij met openstaande scans niet laden.", "Sessiefout", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        offlineResolver = new OfflineResolver(connectionPool, labelCache, pendingQueue, new OfflineResolver.Listener() {
+            @Override
+            public void onConnectionState(boolean online) {
+                setOffline(!online);
+            }
+
+            @Override
+            public void onResolved(Map<String, PalletInfo> resolved) {
+                applyResolvedLookups(resolved);
+            }
+        });
+        offlineResolver.start();
+        if (pendingQueue.size() > 0) {
+            offlineResolver.resolveNow();
+        }
     }
 
     private void setupBottomPanel() {
         bottomPanel = new JPanel(new BorderLayout());
         bottomPanel.setBackground(COLOR_BACKGROUND);
-        bottomPanel.add(createSummaryPanel(), BorderLayout.NORTH);
-
-        legendPanel = new JPanel(new GridLayout(2, 2, 15, 5));
+        JPanel overviewPanel = new JPanel(new BorderLayout(10, 0));
+        overviewPanel.setOpaque(false);
+        overviewPanel.add(createSummaryPanel(), BorderLayout.CENTER);
+        diagnosticsPanel = createDiagnosticsPanel();
+        diagnosticsPanel.setVisible(false);
+        overviewPanel.add(diagnosticsPanel, BorderLayout.EAST);
+        bottomPanel.add(overviewPanel, BorderLayout.NORTH);
+
+        legendPanel = new JPanel(new GridLayout(3, 2, 15, 5));
         legendPanel.setBackground(COLOR_BACKGROUND);
         legendPanel.setBorder(BorderFactory.createTitledBorder(
                 BorderFactory.createEmptyBorder(), "Legenda",
                 TitledBorder.DEFAULT_JUSTIFICATION, TitledBorder.DEFAULT_POSITION,
                 new Font("Helvetica", Font.BOLD, 14), Color.DARK_GRAY));
 
-        legendPanel.add(createLegendItem(COLOR_HIGHLIGHT, "Laatst toegevoegd item"));
-        legendPanel.add(createLegendItem(COLOR_EDITED, "Aantal handmatig gewijzigd"));
+        legendPanel.add(createLegendItem(InventoryTable.COLOR_HIGHLIGHT, "Laatst toegevoegd item"));
+        legendPanel.add(createLegendItem(InventoryTable.COLOR_EDITED, "Aantal handmatig gewijzigd"));
+        legendPanel.add(createLegendItem(InventoryTable.COLOR_DRIFT, "Wijkt af van de database"));
         legendPanel.add(createLegendItem(inventoryTable.getSelectionBackground(), "Geselecteerd voor verwijderen/bewerken"));
-        legendPanel.add(createLegendItem(COLOR_TABLE_ALT_ROW, "Afwisselende rijkleur"));
+        legendPanel.add(createLegendItem(InventoryTable.COLOR_ALT_ROW, "Afwisselende rijkleur"));
 
         bottomPanel.add(legendPanel, BorderLayout.CENTER);
 
@@ -401,6 +644,23 @@ public class InventoryApp extends JFrame {
         updateEditedCount();
         eastPanel.add(editedCountLabel);
 
+        revalidationLabel = new JLabel();
+        revalidationLabel.setFont(new Font("Helvetica", Font.ITALIC, 12));
+        eastPanel.add(revalidationLabel);
+
+        countSyncLabel = new JLabel();
+        countSyncLabel.setFont(new Font("Helvetica", Font.ITALIC, 12));
+        eastPanel.add(countSyncLabel);
+
+        JButton revalidateButton = new JButton("Controleer met database");
+        revalidateButton.setFont(new Font("Helvetica", Font.PLAIN, 12));
+        revalidateButton.setForeground(Color.BLUE);
+        revalidateButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        revalidateButton.setBorder(null);
+        revalidateButton.setContentAreaFilled(false);
+        revalidateButton.addActionListener(e -> startRevalidation(true));
+        eastPanel.add(revalidateButton);
+
         JButton clearSessionButton = new JButton("Sessie Wissen");
         clearSessionButton.setFont(new Font("Helvetica", Font.PLAIN, 12));
         clearSessionButton.setForeground(Color.BLUE);
@@ -421,6 +681,33 @@ public class InventoryApp extends JFrame {
         });
         eastPanel.add(clearSessionButton);
 
+        JButton restoreSessionButton = new JButton("Vorige Versie");
+        restoreSessionButton.setFont(new Font("Helvetica", Font.PLAIN, 12));
+        restoreSessionButton.setForeground(Color.BLUE);
+        restoreSessionButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        restoreSessionButton.setBorder(null);
+        restoreSessionButton.setContentAreaFilled(false);
+        restoreSessionButton.addActionListener(e -> restoreSessionGeneration());
+        eastPanel.add(restoreSessionButton);
+
+        JButton mergeSessionsButton = new JButton("Sessies Samenvoegen");
+        mergeSessionsButton.setFont(new Font("Helvetica", Font.PLAIN, 12));
+        mergeSessionsButton.setForeground(Color.BLUE);
+        mergeSessionsButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        mergeSessionsButton.setBorder(null);
+        mergeSessionsButton.setContentAreaFilled(false);
+        mergeSessionsButton.addActionListener(e -> mergeSessions());
+        eastPanel.add(mergeSessionsButton);
+
+        JButton diagnosticsButton = new JButton("Diagnose");
+        diagnosticsButton.setFont(new Font("Helvetica", Font.PLAIN, 12));
+        diagnosticsButton.setForeground(Color.BLUE);
+        diagnosticsButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        diagnosticsButton.setBorder(null);
+        diagnosticsButton.setContentAreaFilled(false);
+        diagnosticsButton.addActionListener(e -> toggleDiagnostics());
+        eastPanel.add(diagnosticsButton);
+
         bottomPanel.add(eastPanel, BorderLayout.EAST);
     }
 
@@ -459,21 +746,115 @@ public class InventoryApp extends JFrame {
         }
     }
 
-    private boolean connectToDatabase() {
-        try {
-            Dotenv dotenv = Dotenv.load();
-            String dbServer = dotenv.get("DB_SERVER");
-            String dbPort = dotenv.get("DB_PORT");
-            String dbDatabase = dotenv.get("DB_DATABASE");
-            String dbUser = dotenv.get("DB_USER");
-            String dbPassword = dotenv.get("DB_PASSWORD");
+    /**
+     * Checks every row against the live labels in the background. Rows that drifted are coloured
+     * as they come in; scanning carries on meanwhile.
+     */
+    private void startRevalidation(boolean requestedByUser) {
+        if (isOffline || palletRepository == null) {
+            if (requestedByUser) {
+                JOptionPane.showMessageDialog(this, "Controleren kan alleen met een databaseverbinding.", "Offline", JOptionPane.INFORMATION_MESSAGE);
+            }
+            return;
+        }
+        if (tableModel.getRowCount() == 0) {
+            return;
+        }
+        cancelRevalidation();
+        driftedPalletIds.clear();
+        tableModel.clearFlag(InventoryTableModel.FLAG_DRIFT);
+        inventoryTable.repaint();
+
+        SessionRevalidator worker = new SessionRevalidator(palletRepository, tableModel.snapshotRows(), new HashSet<>(editedPalletIds), this::applyDrift) {
+            @Override
+            protected void done() {
+                if (revalidator != this || isCancelled()) {
+                    return;
+                }
+                revalidator = null;
+                try {
+                    get();
+                    updateDriftCount();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    revalidationLabel.setText("Controle met database mislukt.");
+                    if (requestedByUser) {
+                        JOptionPane.showMessageDialog(InventoryApp.this, "Fout bij het controleren met de database: " + e.getCause().getMessage(), "Databasefout", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }
+        };
+        worker.addPropertyChangeListener(evt -> {
+            if ("progress".equals(evt.getPropertyName()) && revalidator == worker) {
+                revalidationLabel.setText("Controle met database: " + evt.getNewValue() + "%");
+            }
+        });
+        revalidator = worker;
+        revalidationLabel.setText("Controle met database: 0%");
+        worker.execute();
+    }
+
+    private void cancelRevalidation() {
+        if (revalidator != null) {
+            revalidator.cancel(false);
+            revalidator = null;
+            revalidationLabel.setText("");
+        }
+    }
 
-            String url = String.format("jdbc:sqlserver://%s:%s;databaseName=%s;encrypt=true;trustServerCertificate=true;",
-                    dbServer, dbPort, dbDatabase);
+    private void applyDrift(List<SessionRevalidator.Drift> drifts) {
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (SessionRevalidator.Drift drift : drifts) {
+            SessionRow compared = drift.row();
+            int row = tableModel.findRow(compared.palletId());
+            // Skip rows that were changed or removed while the check was running.
+            if (row >= 0 && tableModel.getArticle(row).equals(compared.article()) && tableModel.getQuantity(row) == compared.quantity()) {
+                driftedPalletIds.put(compared.palletId(), drift.describe());
+                tableModel.setFlag(row, InventoryTableModel.FLAG_DRIFT, true);
+                first = Math.min(first, row);
+                last = Math.max(last, row);
+            }
+        }
+        inventoryTable.repaintRows(first, last);
+    }
+
+    private void clearDrift(int row, String palletId) {
+        tableModel.setFlag(row, InventoryTableModel.FLAG_DRIFT, false);
+        if (driftedPalletIds.remove(palletId) != null) {
+            inventoryTable.repaintRows(row, row);
+            if (revalidator == null) {
+                updateDriftCount();
+            }
+        }
+    }
+
+    private void updateDriftCount() {
+        int count = driftedPalletIds.size();
+        if (count == 0) {
+            revalidationLabel.setText("Alle rijen komen overeen met de database.");
+        } else if (count == 1) {
+            revalidationLabel.setText("1 rij wijkt af van de database.");
+        } else {
+            revalidationLabel.setText(count + " rijen wijken af van de database.");
+        }
+    }
 
+    private boolean connectToDatabase() {
+        try {
+            DatabaseConfig config = DatabaseConfig.load();
 
-            dbConnection = DriverManager.getConnection(url, dbUser, dbPassword);
+            if (connectionPool == null) {
+                connectionPool = config.createPool(DB_POOL_SIZE, DB_QUERY_TIMEOUT_SECONDS);
+                palletRepository = new PalletRepository(connectionPool);
+                labelCache = new PalletLabelCache(palletRepository, LABEL_CACHE_SIZE, LABEL_CACHE_TTL);
+                lookupPipeline = new PalletLookupPipeline(labelCache);
+            }
+            connectionPool.validate();
             System.out.println("Databaseverbinding succesvol.");
+            prefetchPalletLabels();
             return true;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -488,36 +869,86 @@ public class InventoryApp extends JFrame {
 
     }
 
-    private void fetchProductInfo() {
-        if (lastInsertedRow != -1) {
-            lastInsertedRow = -1;
-            inventoryTable.repaint();
-        }
+    private void prefetchPalletLabels() {
+        Thread.ofVirtual().name("label-prefetch").start(() -> {
+            long start = System.nanoTime();
+            try {
+                int count = labelCache.prefetch(palletRepository);
+                System.out.println("Palletlabels vooraf geladen: " + count + " in "
+                        + Duration.ofNanos(System.nanoTime() - start).toMillis() + " ms.");
+            } catch (SQLException e) {
+                // Not fatal: lookups fall back to the database one scan at a time.
+                e.printStackTrace();
+            }
+        });
+    }
 
-        String palletId = palletIdField.getText().trim();
+    private void onScanEntered() {
+        String input = palletIdField.getText().trim();
+        palletIdField.setText("");
 
         // yes shut up let me be
-        if (palletId.equalsIgnoreCase("magic")) {
+        if (input.equalsIgnoreCase("magic")) {
             isDiscoMode = !isDiscoMode;
             if (isDiscoMode) {
                 startDiscoMode();
             } else {
                 stopDiscoMode();
             }
-            palletIdField.setText("");
             return;
         }
 
-        try {
-            Long.parseLong(palletId);
-        } catch (NumberFormatException e) {
-            if (!palletId.isEmpty()) {
-                JOptionPane.showMessageDialog(this, "Pallet ID moet een geldig getal zijn.", "Ongeldige Invoer", JOptionPane.WARNING_MESSAGE);
-                palletIdField.setText("");
-            }
+        if (scanBuffer.offer(input)) {
+            scanFeedbackLabel.setText(" ");
+        }
+    }
+
+    // Non-modal on purpose: a dialog would swallow the keystrokes of the next scans.
+    private void showScanRejected(String input, ScanInputBuffer.Rejection reason) {
+        scanFeedbackLabel.setText(reason.message + " (" + input + ")");
+        if (reason != ScanInputBuffer.Rejection.DUPLICATE) {
+            Toolkit.getDefaultToolkit().beep();
+        }
+    }
+
+    // Called by the scan buffer, in scan order, with a validated pallet ID.
+    private void fetchProductInfo(String palletId) {
+        inventoryTable.setHighlightedRow(-1);
+
+        String otherStation = countSync != null && !isPalletIdInTable(palletId) ? countSync.countedElsewhere(palletId) : null;
+        if (otherStation != null) {
+            scanFeedbackLabel.setText("Let op: pallet " + palletId + " is al gescand op station " + otherStation + ".");
+            Toolkit.getDefaultToolkit().beep();
+        }
+
+        if (isOffline) {
+            queuePendingScan(palletId);
             return;
         }
+        lookupPipeline.submit(palletId, this::applyLookupResult);
+        updatePendingLookups();
+    }
+
+    private void applyLookupResult(PalletLookupPipeline.Result result) {
+        commitDisplayedItem();
+        updatePendingLookups();
+
+        if (result.error() != null) {
+            result.error().printStackTrace();
+            setOffline(true);
+            queuePendingScan(result.palletId());
+        } else if (result.isFound()) {
+            productNameLabel.setText(result.info().fullName());
+            quantityLabel.setText(result.info().articleQuantity());
+            displayedPalletId = result.palletId();
+        } else {
+            productNameLabel.setText("--- ARTIKEL NIET GEVONDEN ---");
+            quantityLabel.setText("--- Wacht op scan ---");
+            displayedPalletId = null;
+        }
+    }
 
+    private void commitDisplayedItem() {
         if (displayedPalletId != null && !displayedPalletId.isEmpty() && !productNameLabel.getText().contains("---")) {
             if (!isPalletIdInTable(displayedPalletId)) {
                 String productName = productNameLabel.getText();
@@ -526,49 +957,114 @@ public class InventoryApp extends JFrame {
                 try {
                     int quantity = Integer.parseInt(quantityStr);
                     if (quantity > 0) {
-                        tableModel.addRow(new Object[]{displayedPalletId, productName, quantity, ""});
-                        lastInsertedRow = tableModel.getRowCount() - 1;
-                        saveTableState();
+                        long start = System.nanoTime();
+                        tableModel.addRow(displayedPalletId, productName, quantity, "");
+                        int row = tableModel.getRowCount() - 1;
+                        inventoryTable.setHighlightedRow(row);
+                        persistRow(row);
+                        LatencyRecorder.recordSince(LatencyRecorder.Stage.ROW_COMMIT, start);
+                        updateSummaryPanel();
                     }
                 } catch (NumberFormatException ex) {
 
                 }
             }
         }
+    }
 
-        if (palletId.isEmpty()) {
-            resetForNextScan();
-            return;
-        }
-
-        String query = """
-                SELECT oa.full_name, apl.article_quantity FROM article_pallet_labels apl 
-                JOIN original_articles oa ON oa.id = apl.original_article_id 
-                WHERE apl.distribution_count = ?
-                """;
+    private void queuePendingScan(String palletId) {
+        // The connection can drop while an online result is still on screen; it is counted first.
+        commitDisplayedItem();
+        productNameLabel.setText(PENDING_LOOKUP_TEXT);
+        quantityLabel.setText("---");
+        displayedPalletId = null;
 
-        try (PreparedStatement pstmt = dbConnection.prepareStatement(query)) {
-            pstmt.setString(1, palletId);
-            ResultSet rs = pstmt.executeQuery();
+        if (!isPalletIdInTable(palletId)) {
+            try {
+                pendingQueue.add(palletId);
+            } catch (IOException e) {
+                e.printStackTrace();
+                JOptionPane.showMessageDialog(this, "Kon de scan niet in de wachtrij opslaan.", "Sessiefout", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            tableModel.addRow(palletId, PENDING_LOOKUP_TEXT, 0, "");
+            int row = tableModel.getRowCount() - 1;
+            inventoryTable.setHighlightedRow(row);
+            persistRow(row);
+            updateSummaryPanel();
+        }
+        updatePendingLookups();
+    }
 
-            if (rs.next()) {
-                productNameLabel.setText(rs.getString("full_name"));
-                quantityLabel.setText(rs.getString("article_quantity"));
-                palletIdField.requestFocusInWindow();
-                palletIdField.selectAll();
-                displayedPalletId = palletId;
-            } else {
-                productNameLabel.setText("--- ARTIKEL NIET GEVONDEN ---");
-                quantityLabel.setText("--- Wacht op scan ---");
-                palletIdField.setText("");
-                displayedPalletId = null;
+    private void applyResolvedLookups(Map<String, PalletInfo> resolved) {
+        for (Map.Entry<String, PalletInfo> entry : resolved.entrySet()) {
+            int row = tableModel.findRow(entry.getKey());
+            if (row == -1 || !PENDING_LOOKUP_TEXT.equals(tableModel.getArticle(row))) {
+                continue;
             }
-        } catch (SQLException e) {
-            productNameLabel.setText("--- DATABASEFOUT ---");
-            quantityLabel.setText("---");
+            PalletInfo info = entry.getValue();
+            int quantity = tableModel.getQuantity(row);
+            if (info == null) {
+                setRowValues(row, "--- ARTIKEL NIET GEVONDEN ---", quantity);
+                continue;
+            }
+            if (!editedPalletIds.contains(entry.getKey())) {
+                try {
+                    quantity = Integer.parseInt(info.articleQuantity().trim());
+                } catch (NumberFormatException e) {
+                    // Keep the current quantity; the operator can correct it in the table.
+                }
+            }
+            setRowValues(row, info.fullName(), quantity);
+        }
+
+        try {
+            pendingQueue.removeAll(resolved.keySet());
+        } catch (IOException e) {
             e.printStackTrace();
-            displayedPalletId = null;
         }
+        updateSummaryPanel();
+        updatePendingLookups();
+    }
+
+    private void setRowValues(int row, String productName, int quantity) {
+        tableModel.setArticleAndQuantity(row, productName, quantity);
+        persistRow(row);
+    }
+
+    private void setOffline(boolean offline) {
+        boolean wasOffline = isOffline;
+        isOffline = offline;
+        if (offlineResolver != null) {
+            offlineResolver.setOffline(offline);
+        }
+        if (wasOffline && !offline && labelCache.size() == 0) {
+            prefetchPalletLabels();
+        }
+        updatePendingLookups();
+    }
+
+    private void updatePendingLookups() {
+        if (pendingLookupsLabel == null) {
+            return;
+        }
+        List<String> parts = new ArrayList<>();
+        if (isOffline) {
+            parts.add("OFFLINE");
+        }
+        int pending = lookupPipeline.pendingCount();
+        if (pending > 0) {
+            parts.add("Bezig met opzoeken: " + pending + " scan(s)");
+        }
+        int queued = pendingQueue == null ? 0 : pendingQueue.size();
+        if (queued > 0) {
+            parts.add(queued + " scan(s) wachten op de database");
+        }
+        int rate = scanBuffer == null ? 0 : scanBuffer.scansPerMinute();
+        if (rate > 0) {
+            parts.add("Tempo: " + rate + " scans/min");
+        }
+        pendingLookupsLabel.setText(parts.isEmpty() ? " " : String.join(" - ", parts));
     }
 
 
@@ -599,9 +1095,12 @@ public class InventoryApp extends JFrame {
             return;
         }
 
-        tableModel.addRow(new Object[]{palletId, productName, quantity, ""});
-        lastInsertedRow = tableModel.getRowCount() - 1;
-        saveTableState();
+        long start = System.nanoTime();
+        tableModel.addRow(palletId, productName, quantity, "");
+        int row = tableModel.getRowCount() - 1;
+        inventoryTable.setHighlightedRow(row);
+        persistRow(row);
+        LatencyRecorder.recordSince(LatencyRecorder.Stage.ROW_COMMIT, start);
         updateSummaryPanel();
         resetForNextScan();
     }
@@ -616,22 +1115,32 @@ public class InventoryApp extends JFrame {
                     JOptionPane.YES_NO_OPTION
             );
             if (confirm == JOptionPane.YES_OPTION) {
+                for (int i = 0; i < selectedRows.length; i++) {
+                    selectedRows[i] = inventoryTable.convertRowIndexToModel(selectedRows[i]);
+                }
+                // A filter would be evaluated again for every removed row; it is set once afterwards.
+                boolean filtered = inventoryTable.getRowSorter() != null;
+                inventoryTable.setSearchFilter(null);
                 Arrays.sort(selectedRows);
                 for (int i = selectedRows.length - 1; i >= 0; i--) {
                     int rowToDelete = selectedRows[i];
 
-                    String palletId = (String) tableModel.getValueAt(rowToDelete, 0);
+                    String palletId = tableModel.getPalletId(rowToDelete);
                     editedPalletIds.remove(palletId);
+                    clearDrift(rowToDelete, palletId);
 
                     tableModel.removeRow(rowToDelete);
-                    if (rowToDelete == lastInsertedRow) {
-                        lastInsertedRow = -1;
-                    } else if (rowToDelete < lastInsertedRow) {
-                        lastInsertedRow--;
+                    sessionStore.rowRemoved(palletId);
+                    if (countSync != null) {
+                        countSync.rowRemoved(palletId);
                     }
+                    exportBaseline.rowChanged(palletId);
+                    inventoryTable.rowRemoved(rowToDelete);
+                }
+                if (filtered) {
+                    runSearch(false);
                 }
                 updateEditedCount();
-                saveTableState();
                 updateSummaryPanel();
             }
         } else {
@@ -641,13 +1150,23 @@ public class InventoryApp extends JFrame {
 
 
     private boolean isPalletIdInTable(String palletId) {
-        if (palletId == null) return false;
+        return tableModel.containsPalletId(palletId);
+    }
+
+    private boolean confirmUnresolvedRows() {
+        int unresolved = 0;
         for (int row = 0; row < tableModel.getRowCount(); row++) {
-            if (palletId.equals(tableModel.getValueAt(row, 0))) {
-                return true;
+            if (tableModel.getArticle(row).startsWith("---")) {
+                unresolved++;
             }
         }
-        return false;
+        if (unresolved == 0) {
+            return true;
+        }
+        int confirmation = JOptionPane.showConfirmDialog(this,
+                unresolved + " pallet(s) zijn nog niet opgezocht of niet gevonden. Toch exporteren?",
+                "Onvolledige Telling", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+        return confirmation == JOptionPane.YES_OPTION;
     }
 
     private void exportTableToCsv() {
@@ -655,6 +1174,9 @@ public class InventoryApp extends JFrame {
             JOptionPane.showMessageDialog(this, "De tabel is leeg. Er is niets om te exporteren.", "Exportfout", JOptionPane.WARNING_MESSAGE);
             return;
         }
+        if (!confirmUnresolvedRows()) {
+            return;
+        }
 
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("CSV-bestand opslaan");
@@ -669,30 +1191,8 @@ public class InventoryApp extends JFrame {
                 fileToSave = new File(fileToSave.getPath() + ".csv");
             }
 
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileToSave))) {
-                for (int i = 0; i < tableModel.getColumnCount(); i++) {
-                    writer.write(tableModel.getColumnName(i));
-                    if (i < tableModel.getColumnCount() - 1) {
-                        writer.write(",");
-                    }
-                }
-                writer.newLine();
-
-                for (int row = 0; row < tableModel.getRowCount(); row++) {
-                    for (int col = 0; col < tableModel.getColumnCount(); col++) {
-                        Object value = tableModel.getValueAt(row, col);
-                        writer.write(value == null ? "" : value.toString());
-                        if (col < tableModel.getColumnCount() - 1) {
-                            writer.write(",");
-                        }
-                    }
-                    writer.newLine();
-                }
-                JOptionPane.showMessageDialog(this, "De gegevens zijn succesvol geëxporteerd naar " + fileToSave.getName(), "Export succesvol", JOptionPane.INFORMATION_MESSAGE);
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(this, "Fout bij het exporteren van de gegevens: " + ex.getMessage(), "Exportfout", JOptionPane.ERROR_MESSAGE);
-            }
+            List<SessionRow> rows = tableModel.snapshotRows();
+            runExport(fileToSave, rows.size(), (writer, progress) -> CsvExporter.export(rows, writer, progress));
         }
     }
 
@@ -702,6 +1202,14 @@ public class InventoryApp extends JFrame {
             JOptionPane.showMessageDialog(this, "De tabel is leeg. Er is niets om te exporteren.", "Exportfout", JOptionPane.WARNING_MESSAGE);
             return;
         }
+        if (!confirmUnresolvedRows()) {
+            return;
+        }
+        int mode = askXmlExportMode();
+        if (mode != 0 && mode != 1) {
+            return;
+        }
+        boolean aggregated = mode == 1;
 
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Exact XML-bestand opslaan");
@@ -716,103 +1224,261 @@ public class InventoryApp extends JFrame {
                 fileToSave = new File(fileToSave.getPath() + ".xml");
             }
 
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileToSave))) {
-                LocalDate today = LocalDate.now();
-                String formattedDate = today.format(DateTimeFormatter.ISO_LOCAL_DATE);
-                String entryId = String.valueOf(System.currentTimeMillis()).substring(3); // Unique ID
-
-                writer.write("<?xml version=\"1.0\"?>\n");
-                writer.write("<eExact xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:noNamespaceSchemaLocation=\"eExact-Schema.xsd\">\n");
-                writer.write("  <FinEntries>\n");
-                writer.write("    <FinEntry entry=\"" + entryId + "\">\n");
-                writer.write("      <Journal code=\"090\" type=\"M\">\n");
-                writer.write("        <Description>Memoriaal JR</Description>\n");
-                writer.write("      </Journal>\n");
-
-                for (int row = 0; row < tableModel.getRowCount(); row++) {
-                    String palletId = escapeXml(tableModel.getValueAt(row, 0));
-                    String itemCode = escapeXml(extractItemCode(tableModel.getValueAt(row, 1)));
-                    String quantity = escapeXml(tableModel.getValueAt(row, 2));
-
-                    // Credit Line
-                    writer.write("      <FinEntryLine number=\"" + ((row * 2) + 1) + "\" type=\"N\" subtype=\"G\" code=\"1\" linecode=\"B\" transactiontype=\"100\">\n");
-                    writer.write("        <Date>" + formattedDate + "</Date>\n");
-                    writer.write("        <GLAccount code=\"3999\"></GLAccount>\n");
-                    writer.write("        <Description>Omschrijving van telling</Description>\n");
-                    writer.write("        <Costcenter code=\"001CC001\"></Costcenter>\n");
-                    writer.write("        <Item code=\"" + itemCode + "\"></Item>\n");
-                    writer.write("        <Warehouse code=\"1\"></Warehouse>\n");
-                    writer.write("        <Project code=\"\"></Project>\n");
-                    writer.write("        <Quantity>" + quantity + "</Quantity>\n");
-                    writer.write("        <Amount>\n");
-                    writer.write("          <Currency code=\"EUR\"/>\n");
-                    writer.write("          <Debit>0</Debit>\n");
-                    writer.write("          <Credit>0</Credit>\n");
-                    writer.write("          <VAT code=\"0\" type=\"B\" vattype=\"N\"></VAT>\n");
-                    writer.write("        </Amount>\n");
-                    writer.write("      </FinEntryLine>\n");
-
-                    // Debit Line
-                    writer.write("      <FinEntryLine number=\"" + ((row * 2) + 2) + "\" type=\"N\" subtype=\"G\" code=\"2\" linecode=\"B\" transactiontype=\"100\">\n");
-                    writer.write("        <Date>" + formattedDate + "</Date>\n");
-                    writer.write("        <GLAccount code=\"3550\"></GLAccount>\n");
-                    writer.write("        <Description>Omschrijving van telling</Description>\n");
-                    writer.write("        <Costcenter code=\"001CC001\"></Costcenter>\n");
-                    writer.write("        <Item code=\"" + itemCode + "\"></Item>\n");
-                    writer.write("        <Warehouse code=\"1\"></Warehouse>\n");
-                    writer.write("        <Project code=\"\"></Project>\n");
-                    writer.write("        <Quantity>-" + quantity + "</Quantity>\n");
-                    writer.write("        <Amount>\n");
-                    writer.write("          <Currency code=\"EUR\"/>\n");
-                    writer.write("          <Debit>0</Debit>\n");
-                    writer.write("          <Credit>0</Credit>\n");
-                    writer.write("          <VAT code=\"0\" type=\"B\" vattype=\"N\"></VAT>\n");
-                    writer.write("        </Amount>\n");
-                    writer.write("        <FinReferences TransactionOrigin=\"N\">\n");
-                    writer.write("          <YourRef>" + palletId + "</YourRef>\n");
-                    writer.write("          <DocumentDate>" + formattedDate + "</DocumentDate>\n");
-                    writer.write("          <ReportDate>" + formattedDate + "</ReportDate>\n");
-                    writer.write("        </FinReferences>\n");
-                    writer.write("      </FinEntryLine>\n");
-                }
+            List<SessionRow> rows = tableModel.snapshotRows();
+            long mark = exportBaseline.mark();
+            ExactXmlExporter exporter = new ExactXmlExporter(LocalDate.now(), ExactXmlExporter.newEntryId(), tableModel.articles());
+            if (aggregated) {
+                Path palletList = palletListPath(fileToSave);
+                runExport(fileToSave, rows.size(), (writer, progress) -> writeWithPalletList(palletList,
+                        palletWriter -> exporter.exportAggregated(rows, writer, palletWriter, progress)),
+                        () -> exportBaseline.commitFull(rows, mark));
+            } else {
+                runExport(fileToSave, rows.size(), (writer, progress) -> exporter.export(rows, writer, progress),
+                        () -> exportBaseline.commitFull(rows, mark));
+            }
+        }
+    }
 
-                writer.write("    </FinEntry>\n");
-                writer.write("  </FinEntries>\n");
-                writer.write("</eExact>\n");
+    private void exportDelta() {
+        List<SessionRow> rows = tableModel.snapshotRows();
+        long mark = exportBaseline.mark();
+        List<ExportBaseline.Change> changes = exportBaseline.changes(rows);
+        ExportBaseline.Watermark watermark = exportBaseline.watermark();
+        if (changes.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Er zijn geen wijzigingen sinds de laatste export.", "Delta-export", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        if (!confirmUnresolvedRows()) {
+            return;
+        }
 
-                JOptionPane.showMessageDialog(this, "De gegevens zijn succesvol geëxporteerd naar " + fileToSave.getName(), "Export succesvol", JOptionPane.INFORMATION_MESSAGE);
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(this, "Fout bij het exporteren van de gegevens: " + ex.getMessage(), "Exportfout", JOptionPane.ERROR_MESSAGE);
+        int added = 0;
+        int removed = 0;
+        for (ExportBaseline.Change change : changes) {
+            if (change.isNew()) {
+                added++;
+            } else if (change.isRemoved()) {
+                removed++;
             }
         }
-    }
+        String since = watermark == null
+                ? "Er is nog niet eerder geëxporteerd; alle pallets worden als nieuw geboekt."
+                : "Sinds export " + watermark.exportNumber() + " van "
+                + DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm").format(watermark.exportedAt().atZone(ZoneId.systemDefault())) + ":";
+        int confirm = JOptionPane.showConfirmDialog(this,
+                since + "\n" + added + " nieuw, " + (changes.size() - added - removed) + " gewijzigd, " + removed + " verwijderd.\n"
+                        + "Correctieboekingen voor deze pallets exporteren?",
+                "Delta-export", JOptionPane.YES_NO_OPTION);
+        if (confirm != JOptionPane.YES_OPTION) {
+            return;
+        }
 
-    private String extractItemCode(Object articleNameObj) {
-        if (articleNameObj == null) {
-            return "";
+        int exportNumber = watermark == null ? 1 : watermark.exportNumber() + 1;
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Exact XML-bestand (delta) opslaan");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("XML-bestanden", "xml"));
+        fileChooser.setSelectedFile(new File("voorraadtelling_delta_" + exportNumber + ".xml"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File fileToSave = fileChooser.getSelectedFile();
+        if (!fileToSave.getPath().toLowerCase().endsWith(".xml")) {
+            fileToSave = new File(fileToSave.getPath() + ".xml");
         }
-        String articleName = articleNameObj.toString();
-        int startIndex = articleName.lastIndexOf('(');
-        int endIndex = articleName.lastIndexOf(')');
 
-        if (startIndex != -1 && endIndex != -1 && startIndex < endIndex) {
-            return articleName.substring(startIndex + 1, endIndex);
+        ExactXmlExporter exporter = new ExactXmlExporter(LocalDate.now(), ExactXmlExporter.newEntryId(), tableModel.articles());
+        runExport(fileToSave, changes.size(), (writer, progress) -> exporter.exportChanges(changes, writer, progress),
+                () -> exportBaseline.commitChanges(changes, mark));
+    }
+
+    private int askXmlExportMode() {
+        Object[] options = {"Per pallet", "Per artikel (samengevoegd)", "Annuleren"};
+        return JOptionPane.showOptionDialog(this,
+                "Hoe moeten de regels in het Exact-bestand worden opgebouwd?\n"
+                        + "Per artikel wordt één boeking per artikelcode gemaakt; de pallets worden\n"
+                        + "dan in een apart CSV-bestand naast het XML-bestand vastgelegd.",
+                "Exact XML exporteren", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+    }
+
+    private static Path palletListPath(File xmlFile) {
+        String name = xmlFile.getName();
+        return xmlFile.toPath().resolveSibling(name.substring(0, name.length() - ".xml".length()) + "_pallets.csv");
+    }
+
+    private interface PalletListTask {
+        void write(Writer palletWriter) throws IOException;
+    }
+
+    // Same write-then-move approach as runExport, for the pallet list that goes with an aggregated export.
+    private static void writeWithPalletList(Path palletList, PalletListTask task) throws IOException {
+        Path partial = palletList.resolveSibling(palletList.getFileName() + ".part");
+        boolean completed = false;
+        try (Writer palletWriter = new FileWriter(partial.toFile())) {
+            task.write(palletWriter);
+            completed = true;
+        } finally {
+            if (!completed) {
+                Files.deleteIfExists(partial);
+            }
         }
-        return "";
+        Files.move(partial, palletList, StandardCopyOption.REPLACE_EXISTING);
     }
 
+    private void exportInChunks() {
+        if (tableModel.getRowCount() == 0) {
+            JOptionPane.showMessageDialog(this, "De tabel is leeg. Er is niets om te exporteren.", "Exportfout", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        if (!confirmUnresolvedRows()) {
+            return;
+        }
+
+        Object[] formats = {"Exact XML", "CSV", "Annuleren"};
+        int choice = JOptionPane.showOptionDialog(this, "In welk formaat moeten de delen worden geëxporteerd?",
+                "Gesplitst exporteren", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, formats, formats[0]);
+        if (choice != 0 && choice != 1) {
+            return;
+        }
+        ChunkedExporter.Format format = choice == 0 ? ChunkedExporter.Format.XML : ChunkedExporter.Format.CSV;
+
+        String limit = JOptionPane.showInputDialog(this,
+                "Maximale omvang per bestand: een aantal rijen (bijv. 2000) of een grootte (bijv. 5MB of 500KB).", "2000");
+        if (limit == null) {
+            return;
+        }
+        ChunkedExporter exporter;
+        try {
+            exporter = parseChunkLimit(format, limit.trim());
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this, "Ongeldige omvang: " + limit, "Ongeldige Invoer", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Gesplitste export opslaan");
+        fileChooser.setSelectedFile(new File("voorraadtelling." + format.extension));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File selected = fileChooser.getSelectedFile();
+        String baseName = selected.getName();
+        if (baseName.toLowerCase().endsWith("." + format.extension)) {
+            baseName = baseName.substring(0, baseName.length() - format.extension.length() - 1);
+        }
+        Path directory = selected.getAbsoluteFile().toPath().getParent();
+        String chunkBaseName = baseName;
+
+        List<SessionRow> rows = tableModel.snapshotRows();
+        long mark = exportBaseline.mark();
+        ChunkedExporter.Result[] result = new ChunkedExporter.Result[1];
+        runInBackground("Gesplitst exporteren naar " + directory + "...", rows.size(), progress -> {
+                    result[0] = exporter.export(rows, directory, chunkBaseName, progress);
+                    if (format == ChunkedExporter.Format.XML) {
+                        exportBaseline.commitFull(rows, mark);
+                    }
+                },
+                () -> result[0].chunks().size() + " bestanden geëxporteerd naar " + directory
+                        + (result[0].reused() > 0 ? " (" + result[0].reused() + " ongewijzigde delen overgeslagen)" : "")
+                        + ".\nOverzicht met controlegetallen: " + result[0].manifest().getFileName());
+    }
 
-    private String escapeXml(Object obj) {
-        if (obj == null) {
-            return "";
+    private static ChunkedExporter parseChunkLimit(ChunkedExporter.Format format, String limit) {
+        String upper = limit.toUpperCase().replace(" ", "");
+        if (upper.endsWith("MB")) {
+            return new ChunkedExporter(format, 0, Long.parseLong(upper.substring(0, upper.length() - 2)) * 1024 * 1024);
+        }
+        if (upper.endsWith("KB")) {
+            return new ChunkedExporter(format, 0, Long.parseLong(upper.substring(0, upper.length() - 2)) * 1024);
         }
-        String text = obj.toString();
-        return text.replace("&", "&amp;")
-                .replace("<", "&lt;")
-                .replace(">", "&gt;")
-                .replace("\"", "&quot;")
-                .replace("'", "&apos;");
+        return new ChunkedExporter(format, Integer.parseInt(upper), 0);
+    }
+
+    private interface ExportTask {
+        void write(Writer writer, ExportProgress progress) throws IOException;
+    }
+
+    private interface BackgroundExport {
+        void run(ExportProgress progress) throws IOException;
+    }
+
+    private interface ExportCompletion {
+        void completed() throws IOException;
+    }
+
+    private void runExport(File fileToSave, int totalRows, ExportTask task) {
+        runExport(fileToSave, totalRows, task, () -> {
+        });
+    }
+
+    /**
+     * Runs an export on a background worker with a cancellable progress dialog. The file is
+     * written next to the target and only moved into place once it is complete, after which
+     * {@code completion} runs on the same worker.
+     */
+    private void runExport(File fileToSave, int totalRows, ExportTask task, ExportCompletion completion) {
+        Path target = fileToSave.toPath();
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        runInBackground("Exporteren naar " + fileToSave.getName() + "...", totalRows, progress -> {
+            boolean completed = false;
+            try (Writer writer = new FileWriter(partial.toFile())) {
+                task.write(writer, progress);
+                completed = true;
+            } finally {
+                if (!completed) {
+                    Files.deleteIfExists(partial);
+                }
+            }
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+            completion.completed();
+        }, () -> "De gegevens zijn succesvol geëxporteerd naar " + fileToSave.getName());
+    }
+
+    private void runInBackground(String title, int totalRows, BackgroundExport export, Supplier<String> successMessage) {
+        ProgressMonitor monitor = new ProgressMonitor(this, title, null, 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+
+        SwingWorker<Void, Void> worker = new SwingWorker<>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                export.run(rowsWritten -> {
+                    setProgress(totalRows == 0 ? 100 : (int) Math.min(100, rowsWritten * 100L / totalRows));
+                    return !isCancelled();
+                });
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                if (isCancelled()) {
+                    JOptionPane.showMessageDialog(InventoryApp.this, "De export is geannuleerd.", "Export geannuleerd", JOptionPane.INFORMATION_MESSAGE);
+                    return;
+                }
+                try {
+                    get();
+                    JOptionPane.showMessageDialog(InventoryApp.this, successMessage.get(), "Export succesvol", JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof CancellationException) {
+                        JOptionPane.showMessageDialog(InventoryApp.this, "De export is geannuleerd.", "Export geannuleerd", JOptionPane.INFORMATION_MESSAGE);
+                        return;
+                    }
+                    cause.printStackTrace();
+                    JOptionPane.showMessageDialog(InventoryApp.this, "Fout bij het exporteren van de gegevens: " + cause.getMessage(), "Exportfout", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.addPropertyChangeListener(evt -> {
+            if ("progress".equals(evt.getPropertyName())) {
+                monitor.setProgress((Integer) evt.getNewValue());
+                if (monitor.isCanceled()) {
+                    worker.cancel(false);
+                }
+            }
+        });
+        worker.execute();
     }
 
     private void resetForNextScan() {
@@ -824,13 +1490,24 @@ public class InventoryApp extends JFrame {
     }
 
     private void onClosing() {
-        try {
-            if (dbConnection != null && !dbConnection.isClosed()) {
-                dbConnection.close();
-                System.out.println("Databaseverbinding gesloten.");
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (lookupPipeline != null) {
+            lookupPipeline.close();
+        }
+        if (offlineResolver != null) {
+            offlineResolver.close();
+        }
+        if (countSync != null) {
+            countSync.close();
+        }
+        if (sessionStore != null) {
+            sessionStore.close();
+        }
+        if (labelCache != null) {
+            System.out.println(labelCache);
+        }
+        if (connectionPool != null) {
+            connectionPool.close();
+            System.out.println("Databaseverbinding gesloten.");
         }
         dispose();
         System.exit(0);
@@ -858,101 +1535,335 @@ public class InventoryApp extends JFrame {
         return summaryPanel;
     }
     private void updateSummaryPanel() {
-        int palletCount = tableModel.getRowCount();
-        long totalQuantity = 0;
-        Set<String> uniqueItems = new HashSet<>();
+        long start = System.nanoTime();
+        SessionSummary summary = tableModel.summary();
+        summaryPalletCountLabel.setText("Gescande Pallets: " + summary.palletCount());
+        summaryTotalQuantityLabel.setText("Totaal Aantal Stuks: " + summary.totalQuantity());
+        summaryUniqueItemsLabel.setText("Unieke Artikelen: " + summary.uniqueArticles());
+        LatencyRecorder.recordSince(LatencyRecorder.Stage.SUMMARY_UPDATE, start);
+    }
 
-        for (int row = 0; row < palletCount; row++) {
-            try {
-                totalQuantity += Long.parseLong(tableModel.getValueAt(row, 2).toString());
-            } catch (NumberFormatException e) {
-                // Ignore rows with invalid quantity for summary calculation
-            }
-            uniqueItems.add(tableModel.getValueAt(row, 1).toString());
+    private JPanel createDiagnosticsPanel() {
+        JPanel panel = new JPanel(new BorderLayout(0, 5));
+        panel.setOpaque(false);
+        panel.setBorder(BorderFactory.createTitledBorder(
+                BorderFactory.createEmptyBorder(0, 5, 5, 5), "Diagnose (ms)",
+                TitledBorder.DEFAULT_JUSTIFICATION, TitledBorder.DEFAULT_POSITION,
+                new Font("Helvetica", Font.BOLD, 14), Color.DARK_GRAY));
+
+        diagnosticsArea = new JTextArea();
+        diagnosticsArea.setEditable(false);
+        diagnosticsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        diagnosticsArea.setBackground(COLOR_BACKGROUND);
+        panel.add(diagnosticsArea, BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+        buttons.setOpaque(false);
+        JButton resetButton = new JButton("Wissen");
+        resetButton.setFont(new Font("Helvetica", Font.PLAIN, 12));
+        resetButton.addActionListener(e -> {
+            LatencyRecorder.reset();
+            updateDiagnostics();
+        });
+        buttons.add(resetButton);
+        JButton exportReportButton = new JButton("Rapport exporteren");
+        exportReportButton.setFont(new Font("Helvetica", Font.PLAIN, 12));
+        exportReportButton.addActionListener(e -> exportDiagnosticsReport());
+        buttons.add(exportReportButton);
+        panel.add(buttons, BorderLayout.SOUTH);
+
+        diagnosticsTimer = new Timer(1000, e -> updateDiagnostics());
+        return panel;
+    }
+
+    private void toggleDiagnostics() {
+        boolean visible = !diagnosticsPanel.isVisible();
+        diagnosticsPanel.setVisible(visible);
+        if (visible) {
+            updateDiagnostics();
+            diagnosticsTimer.start();
+        } else {
+            diagnosticsTimer.stop();
         }
+        bottomPanel.revalidate();
+    }
 
-        summaryPalletCountLabel.setText("Gescande Pallets: " + palletCount);
-        summaryTotalQuantityLabel.setText("Totaal Aantal Stuks: " + totalQuantity);
-        summaryUniqueItemsLabel.setText("Unieke Artikelen: " + uniqueItems.size());
+    private void updateDiagnostics() {
+        diagnosticsArea.setText(formatLatencyTable());
+    }
+
+    private static String formatLatencyTable() {
+        StringBuilder text = new StringBuilder(String.format("%-30s %7s %8s %8s %8s %8s%n", "Stap", "Aantal", "p50", "p90", "p99", "max"));
+        for (LatencyRecorder.Stage stage : LatencyRecorder.Stage.values()) {
+            LatencyRecorder.Snapshot snapshot = LatencyRecorder.snapshot(stage);
+            text.append(String.format("%-30s %7d %8.2f %8.2f %8.2f %8.2f%n", stage.label, snapshot.count(),
+                    snapshot.p50Nanos() / 1e6, snapshot.p90Nanos() / 1e6, snapshot.p99Nanos() / 1e6, snapshot.maxNanos() / 1e6));
+        }
+        return text.toString();
+    }
+
+    private void exportDiagnosticsReport() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Diagnoserapport opslaan");
+        fileChooser.setSelectedFile(new File("diagnose_" + LocalDate.now() + ".txt"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        String report = "Diagnoserapport voorraadtelling - " + java.time.LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss")) + "\n"
+                + "Java " + System.getProperty("java.version") + " op " + System.getProperty("os.name") + " " + System.getProperty("os.version")
+                + ", " + runtime.availableProcessors() + " processors, max. geheugen " + runtime.maxMemory() / (1024 * 1024) + " MB\n"
+                + "Rijen in de tabel: " + tableModel.getRowCount() + (isOffline ? " (offline)" : "") + "\n"
+                + (labelCache != null ? labelCache + "\n" : "")
+                + "\nDuur per stap in milliseconden:\n"
+                + formatLatencyTable();
+        try {
+            Files.writeString(fileChooser.getSelectedFile().toPath(), report);
+            JOptionPane.showMessageDialog(this, "Het diagnoserapport is opgeslagen als " + fileChooser.getSelectedFile().getName(), "Diagnose", JOptionPane.INFORMATION_MESSAGE);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Fout bij het opslaan van het rapport: " + ex.getMessage(), "Diagnose", JOptionPane.ERROR_MESSAGE);
+        }
     }
 
 
     private void clearSession() {
         try {
-            Files.deleteIfExists(SESSION_FILE_PATH);
-            tableModel.setRowCount(0);
+            sessionStore.clear();
+            exportBaseline.reset();
+            if (pendingQueue != null) {
+                pendingQueue.clear();
+            }
+            cancelRevalidation();
+            driftedPalletIds.clear();
+            tableModel.clear();
+            if (countSync != null) {
+                countSync.resync(List.of());
+            }
             editedPalletIds.clear();
             updateEditedCount();
             updateSummaryPanel();
-            lastInsertedRow = -1;
+            inventoryTable.setHighlightedRow(-1);
             resetForNextScan();
+            updatePendingLookups();
         } catch (IOException e) {
             e.printStackTrace();
             JOptionPane.showMessageDialog(this, "Kon het sessiebestand niet opschonen.", "Sessiefout", JOptionPane.WARNING_MESSAGE);
         }
     }
 
-    private void saveTableState() {
-        try (BufferedWriter writer = Files.newBufferedWriter(SESSION_FILE_PATH)) {
-            String editedIds = String.join(",", editedPalletIds);
-            writer.write("EDITED_IDS:" + editedIds);
-            writer.newLine();
+    private void persistRow(int row) {
+        SessionRow sessionRow = tableModel.getRow(row);
+        sessionStore.rowPut(sessionRow);
+        exportBaseline.rowChanged(sessionRow.palletId());
+        if (countSync != null) {
+            countSync.rowPut(sessionRow);
+        }
+    }
+
+    private void startCountSync() {
+        countSync = CountSyncClient.fromEnvironment(tableModel::snapshotRows, new CountSyncClient.Listener() {
+            @Override
+            public void onRemoteScans(List<CountSyncClient.RemoteScan> scans) {
+                CountSyncClient.RemoteScan first = null;
+                int duplicates = 0;
+                for (CountSyncClient.RemoteScan scan : scans) {
+                    if (isPalletIdInTable(scan.palletId())) {
+                        if (first == null) {
+                            first = scan;
+                        }
+                        duplicates++;
+                    }
+                }
+                if (first != null) {
+                    scanFeedbackLabel.setText("Let op: pallet " + first.palletId() + " is ook gescand op station " + first.station()
+                            + (duplicates > 1 ? " (en " + (duplicates - 1) + " andere pallet(s) op andere stations)." : "."));
+                    Toolkit.getDefaultToolkit().beep();
+                }
+            }
 
-            for (int row = 0; row < tableModel.getRowCount(); row++) {
-                writer.write("ROW_START");
-                writer.newLine();
-                writer.write(String.valueOf(tableModel.getValueAt(row, 0))); // Pallet ID
-                writer.newLine();
-                writer.write(String.valueOf(tableModel.getValueAt(row, 1))); // Artikel
-                writer.newLine();
-                writer.write(String.valueOf(tableModel.getValueAt(row, 2))); // Aantal
-                writer.newLine();
-                writer.write(String.valueOf(tableModel.getValueAt(row, 3))); // Notities
-                writer.newLine();
+            @Override
+            public void onStatusChanged() {
+                updateCountSyncStatus();
             }
+        });
+        if (countSync != null) {
+            countSync.start();
+            updateCountSyncStatus();
+        }
+    }
+
+    private void updateCountSyncStatus() {
+        if (countSync == null) {
+            countSyncLabel.setText("");
+        } else if (countSync.isConnected()) {
+            countSyncLabel.setText("Station " + countSync.station() + ": " + countSync.remotePalletCount() + " pallets op andere stations");
+        } else {
+            countSyncLabel.setText("Telserver niet bereikbaar");
+        }
+    }
+
+    private SessionStore.State captureSessionState() {
+        return new SessionStore.State(tableModel.snapshotRows(), new LinkedHashSet<>(editedPalletIds));
+    }
+
+    private void loadTableState() {
+        try {
+            applySessionState(sessionStore.load());
         } catch (IOException e) {
             e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Kon de vorige sessie niet herstellen.", "Sessiefout", JOptionPane.ERROR_MESSAGE);
         }
     }
 
-    private void loadTableState() {
-        if (!Files.exists(SESSION_FILE_PATH)) {
+    private void mergeSessions() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Sessiebestanden van andere stations kiezen");
+        fileChooser.setMultiSelectionEnabled(true);
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Sessiebestanden (.dat, .journal)", "dat", "journal"));
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION || fileChooser.getSelectedFiles().length == 0) {
             return;
         }
+        List<Path> files = new ArrayList<>();
+        for (File file : fileChooser.getSelectedFiles()) {
+            files.add(file.toPath());
+        }
+        // This station comes first, so its count wins a conflict unless another station corrected it by hand.
+        SessionMerger.Station local = new SessionMerger.Station("deze laptop", captureSessionState());
 
-        try {
-            List<String> lines = Files.readAllLines(SESSION_FILE_PATH);
-            if (lines.isEmpty()) {
-                return;
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        SwingWorker<SessionMerger.Result, Void> worker = new SwingWorker<>() {
+            @Override
+            protected SessionMerger.Result doInBackground() throws Exception {
+                List<SessionMerger.Station> stations = new ArrayList<>();
+                stations.add(local);
+                stations.addAll(SessionMerger.loadAll(files));
+                return SessionMerger.merge(stations);
             }
 
-            String header = lines.get(0);
-            if (header.startsWith("EDITED_IDS:")) {
-                String idString = header.substring("EDITED_IDS:".length());
-                if (!idString.isEmpty()) {
-                    String[] ids = idString.split(",");
-                    editedPalletIds.addAll(Arrays.asList(ids));
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    applyMergedSessions(get(), local.state(), files.size() + 1);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ex) {
+                    ex.getCause().printStackTrace();
+                    JOptionPane.showMessageDialog(InventoryApp.this, "Kon de sessies niet samenvoegen: " + ex.getCause().getMessage(),
+                            "Sessies Samenvoegen", JOptionPane.ERROR_MESSAGE);
                 }
             }
+        };
+        worker.execute();
+    }
 
-            int i = 1;
-            while (i < lines.size()) {
-                if (lines.get(i).equals("ROW_START") && i + 4 < lines.size()) {
-                    String palletId = lines.get(i + 1);
-                    String artikel = lines.get(i + 2);
-                    int aantal = Integer.parseInt(lines.get(i + 3));
-                    String notities = lines.get(i + 4);
-                    tableModel.addRow(new Object[]{palletId, artikel, aantal, notities});
-                    i += 5;
-                } else {
-                    i++;
-                }
+    private void applyMergedSessions(SessionMerger.Result result, SessionStore.State mergedLocal, int stations) {
+        String message = "Samengevoegd uit " + stations + " sessies: " + result.merged().rows().size() + " pallets ("
+                + result.inputRows() + " rijen, " + result.duplicates() + " dubbel gescand).\n"
+                + (result.conflicts().isEmpty()
+                    ? "Er zijn geen conflicten."
+                    : result.conflicts().size() + " pallet(s) zijn verschillend geteld; de handmatig aangepaste telling,\n"
+                        + "anders die van deze laptop of het eerst gekozen bestand, is aangehouden.")
+                + "\n\nDe huidige sessie wordt als vorige versie bewaard.";
+        String[] options = result.conflicts().isEmpty()
+                ? new String[]{"Overnemen", "Annuleren"}
+                : new String[]{"Overnemen", "Overnemen en conflictrapport opslaan", "Annuleren"};
+        int choice = JOptionPane.showOptionDialog(this, message, "Sessies Samenvoegen", JOptionPane.DEFAULT_OPTION,
+                result.conflicts().isEmpty() ? JOptionPane.QUESTION_MESSAGE : JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+        if (choice < 0 || choice == options.length - 1) {
+            return;
+        }
+        if (choice == 1) {
+            saveConflictReport(result.conflicts());
+        }
+
+        try {
+            // Scans and lookups keep coming in while the merge runs and the dialog is open; they are merged in
+            // the same way, so they are not overwritten.
+            SessionStore.State merged = result.merged();
+            SessionStore.State current = captureSessionState();
+            if (!current.rows().equals(mergedLocal.rows()) || !current.editedPalletIds().equals(mergedLocal.editedPalletIds())) {
+                merged = SessionMerger.merge(List.of(
+                        new SessionMerger.Station("deze laptop", current),
+                        new SessionMerger.Station("samengevoegd", merged))).merged();
             }
-            updateEditedCount();
-            updateSummaryPanel();
-        } catch (IOException | NumberFormatException e) {
+            sessionStore.replace(merged);
+            applySessionState(merged);
+            resetForNextScan();
+            startRevalidation(false);
+        } catch (IOException e) {
             e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Kon de vorige sessie niet herstellen.", "Sessiefout", JOptionPane.ERROR_MESSAGE);
+            JOptionPane.showMessageDialog(this, "Kon de samengevoegde sessie niet opslaan.", "Sessiefout", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void saveConflictReport(List<SessionMerger.Conflict> conflicts) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Conflictrapport opslaan");
+        fileChooser.setSelectedFile(new File("conflicten_" + LocalDate.now() + ".txt"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try (Writer out = Files.newBufferedWriter(fileChooser.getSelectedFile().toPath(), StandardCharsets.UTF_8)) {
+            SessionMerger.writeReport(conflicts, out);
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Fout bij het opslaan van het conflictrapport: " + e.getMessage(), "Sessies Samenvoegen", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void applySessionState(SessionStore.State state) {
+        cancelRevalidation();
+        driftedPalletIds.clear();
+        tableModel.clear();
+        editedPalletIds.clear();
+        inventoryTable.setHighlightedRow(-1);
+        editedPalletIds.addAll(state.editedPalletIds());
+        tableModel.addRows(state.rows());
+        tableModel.setFlag(editedPalletIds, InventoryTableModel.FLAG_EDITED);
+        exportBaseline.reconcile(state.rows());
+        if (countSync != null) {
+            countSync.resync(state.rows());
+        }
+        updateEditedCount();
+        updateSummaryPanel();
+
+        if (state.skippedRecords() > 0) {
+            JOptionPane.showMessageDialog(this,
+                    "De sessie is hersteld, maar " + state.skippedRecords() + " beschadigde record(s) zijn overgeslagen.\n"
+                            + "Controleer de telling of zet een vorige versie terug.",
+                    "Sessie Gedeeltelijk Hersteld", JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
+    private void restoreSessionGeneration() {
+        List<SessionStore.Generation> generations = sessionStore.generations();
+        if (generations.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Er zijn geen eerdere versies van deze sessie.", "Vorige Versie", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
+        String[] options = new String[generations.size()];
+        for (int i = 0; i < options.length; i++) {
+            options[i] = "Versie " + generations.get(i).number() + " - opgeslagen " + format.format(generations.get(i).savedAt().toInstant());
+        }
+        Object choice = JOptionPane.showInputDialog(this,
+                "Kies de versie die je wilt terugzetten.\nDe huidige sessie wordt eerst als nieuwste versie bewaard.",
+                "Vorige Versie", JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+        if (choice == null) {
+            return;
+        }
+
+        SessionStore.Generation generation = generations.get(Arrays.asList(options).indexOf(choice));
+        try {
+            applySessionState(sessionStore.restore(generation));
+            resetForNextScan();
+            startRevalidation(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Kon de vorige versie niet terugzetten.", "Sessiefout", JOptionPane.ERROR_MESSAGE);
         }
     }
 
@@ -0,0 +1,146 @@
+package RP.FitKit;
+
+import javax.swing.*;
+import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableRowSorter;
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.util.Map;
+
+/**
+ * The table of counted pallets. Row colours come from the display flags in the model and the
+ * highlighted row index, so preparing a cell costs a few array reads however large the session
+ * is. Changes repaint only the rows they affect.
+ * <p>
+ * While a search filter is set, the view shows a subset of the model; the highlighted row and
+ * the rows passed to {@link #repaintRows} are model indexes.
+ */
+class InventoryTable extends JTable {
+    static final Color COLOR_ALT_ROW = new Color(235, 245, 255);
+    static final Color COLOR_HIGHLIGHT = new Color(255, 255, 204);
+    static final Color COLOR_EDITED = new Color(255, 224, 178);
+    static final Color COLOR_DRIFT = new Color(255, 205, 210);
+
+    private final InventoryTableModel model;
+    private final Map<String, String> driftDescriptions;
+    private int highlightedRow = -1;
+
+    /**
+     * @param driftDescriptions the tooltip per pallet ID for rows flagged {@link InventoryTableModel#FLAG_DRIFT}
+     */
+    InventoryTable(InventoryTableModel model, Map<String, String> driftDescriptions) {
+        super(model);
+        this.model = model;
+        this.driftDescriptions = driftDescriptions;
+    }
+
+    int getHighlightedRow() {
+        return highlightedRow;
+    }
+
+    /** Moves the highlight (the last added row), repainting the old and the new row only. */
+    void setHighlightedRow(int row) {
+        if (row == highlightedRow) {
+            return;
+        }
+        int previous = highlightedRow;
+        highlightedRow = row;
+        repaintRows(previous, previous);
+        repaintRows(row, row);
+    }
+
+    /** Adjusts the highlight for a removed row, without repainting; the removal repaints already. */
+    void rowRemoved(int row) {
+        if (row == highlightedRow) {
+            highlightedRow = -1;
+        } else if (row < highlightedRow) {
+            highlightedRow--;
+        }
+    }
+
+    /** Shows only the rows among the matches, or every row again for null. The model order is kept. */
+    void setSearchFilter(SessionSearchIndex.Matches matches) {
+        if (matches == null) {
+            setRowSorter(null);
+            return;
+        }
+        RowFilter<InventoryTableModel, Integer> filter = new RowFilter<>() {
+            @Override
+            public boolean include(Entry<? extends InventoryTableModel, ? extends Integer> entry) {
+                return matches.containsKey(model.searchKeyAt(entry.getIdentifier()));
+            }
+        };
+        @SuppressWarnings("unchecked")
+        TableRowSorter<InventoryTableModel> sorter = (TableRowSorter<InventoryTableModel>) getRowSorter();
+        if (sorter == null) {
+            sorter = new TableRowSorter<>(model);
+            for (int column = 0; column < model.getColumnCount(); column++) {
+                sorter.setSortable(column, false);
+            }
+            sorter.setRowFilter(filter);
+            setRowSorter(sorter);
+        } else {
+            sorter.setRowFilter(filter);
+        }
+    }
+
+    /** Selects a model row and scrolls it into view; returns false when the filter hides it. */
+    boolean showRow(int row) {
+        int viewRow = row < 0 ? -1 : convertRowIndexToView(row);
+        if (viewRow < 0) {
+            return false;
+        }
+        setRowSelectionInterval(viewRow, viewRow);
+        scrollRectToVisible(getCellRect(viewRow, 0, true));
+        return true;
+    }
+
+    void repaintRows(int first, int last) {
+        if (first < 0 || last < first || last >= model.getRowCount()) {
+            return;
+        }
+        if (getRowSorter() != null) {
+            // The rows need not be next to each other in the view; the visible part is repainted.
+            repaint();
+            return;
+        }
+        Rectangle dirty = getCellRect(first, 0, true).union(getCellRect(last, getColumnCount() - 1, true));
+        repaint(dirty);
+    }
+
+    @Override
+    public Component prepareRenderer(TableCellRenderer renderer, int row, int column) {
+        Component c = super.prepareRenderer(renderer, row, column);
+        if (isRowSelected(row)) {
+            return c;
+        }
+        int modelRow = convertRowIndexToModel(row);
+        if (modelRow == highlightedRow) {
+            c.setBackground(COLOR_HIGHLIGHT);
+        } else if (column == InventoryTableModel.COLUMN_QUANTITY && model.hasFlag(modelRow, InventoryTableModel.FLAG_EDITED)) {
+            c.setBackground(COLOR_EDITED);
+        } else if (model.hasFlag(modelRow, InventoryTableModel.FLAG_DRIFT)) {
+            c.setBackground(COLOR_DRIFT);
+        } else {
+            c.setBackground(row % 2 == 0 ? COLOR_ALT_ROW : Color.WHITE);
+        }
+        return c;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
+        super.paintComponent(g);
+        LatencyRecorder.recordSince(LatencyRecorder.Stage.TABLE_PAINT, start);
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        int viewRow = rowAtPoint(event.getPoint());
+        if (viewRow < 0) {
+            return null;
+        }
+        int row = convertRowIndexToModel(viewRow);
+        return model.hasFlag(row, InventoryTableModel.FLAG_DRIFT) ? driftDescriptions.get(model.getPalletId(row)) : null;
+    }
+}
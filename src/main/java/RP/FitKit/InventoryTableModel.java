@@ -0,0 +1,303 @@
+package RP.FitKit;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Table model for the counted pallets, stored column by column in primitive arrays instead of a
+ * Vector of Object rows. Rows hold the {@link ArticleDictionary} ID of their article instead of the
+ * name, and pallet ID text and notes are only stored when they add something (non-canonical IDs,
+ * non-empty notes). The model keeps the pallet ID index and the session summary in step with every
+ * change and fires row-level events.
+ * <p>
+ * Each row also carries display flags (edited by hand, differs from the database) that move with
+ * the row, so the renderer reads a byte instead of looking the pallet ID up in a set per cell, and
+ * a search key that never changes, under which the row is kept in the {@link SessionSearchIndex} and
+ * the {@link PalletIdIndex}.
+ */
+class InventoryTableModel extends AbstractTableModel {
+    static final int COLUMN_PALLET_ID = 0;
+    static final int COLUMN_ARTICLE = 1;
+    static final int COLUMN_QUANTITY = 2;
+    static final int COLUMN_NOTES = 3;
+
+    static final byte FLAG_EDITED = 1;
+    static final byte FLAG_DRIFT = 2;
+
+    private static final String[] COLUMN_NAMES = {"Pallet ID", "Artikel", "Ingevoerd Aantal", "Notities"};
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] palletIds = new long[INITIAL_CAPACITY];
+    // Only set for IDs whose text is not Long.toString of the numeric value.
+    private String[] palletIdText = new String[INITIAL_CAPACITY];
+    private int[] articleIds = new int[INITIAL_CAPACITY];
+    private int[] quantities = new int[INITIAL_CAPACITY];
+    // Null for the (common) empty note.
+    private String[] notes = new String[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    // Increasing with the row index, so a key is found back with a binary search.
+    private int[] searchKeys = new int[INITIAL_CAPACITY];
+    private int nextSearchKey;
+    private int rowCount;
+
+    private final ArticleDictionary articles = new ArticleDictionary();
+    private final PalletIdIndex palletIdIndex = new PalletIdIndex();
+    private final SessionSummary summary = new SessionSummary();
+    private final SessionSearchIndex searchIndex = new SessionSearchIndex(articles);
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return column == COLUMN_QUANTITY || column == COLUMN_NOTES;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return switch (column) {
+            case COLUMN_PALLET_ID -> getPalletId(row);
+            case COLUMN_ARTICLE -> getArticle(row);
+            case COLUMN_QUANTITY -> quantities[row];
+            case COLUMN_NOTES -> getNotes(row);
+            default -> throw new IndexOutOfBoundsException(column);
+        };
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        if (column == COLUMN_QUANTITY) {
+            int quantity = value instanceof Number number ? number.intValue() : Integer.parseInt(value.toString().trim());
+            summary.quantityChanged(quantities[row], quantity);
+            quantities[row] = quantity;
+        } else if (column == COLUMN_NOTES) {
+            String text = value == null ? "" : value.toString();
+            searchIndex.notesChanged(searchKeys[row], getNotes(row), text);
+            notes[row] = text.isEmpty() ? null : text;
+        } else {
+            throw new IllegalArgumentException("Kolom " + column + " is niet bewerkbaar.");
+        }
+        fireTableCellUpdated(row, column);
+    }
+
+    String getPalletId(int row) {
+        String text = palletIdText[row];
+        return text != null ? text : Long.toString(palletIds[row]);
+    }
+
+    String getArticle(int row) {
+        return articles.name(articleIds[row]);
+    }
+
+    int getArticleId(int row) {
+        return articleIds[row];
+    }
+
+    String getItemCode(int row) {
+        return articles.itemCode(articleIds[row]);
+    }
+
+    /** The dictionary of this session's articles; its item codes can be read from any thread. */
+    ArticleDictionary articles() {
+        return articles;
+    }
+
+    int getQuantity(int row) {
+        return quantities[row];
+    }
+
+    String getNotes(int row) {
+        String text = notes[row];
+        return text != null ? text : "";
+    }
+
+    boolean hasFlag(int row, byte flag) {
+        return (flags[row] & flag) != 0;
+    }
+
+    /** Sets or clears a display flag. No event is fired; the caller repaints the row. */
+    void setFlag(int row, byte flag, boolean set) {
+        flags[row] = (byte) (set ? flags[row] | flag : flags[row] & ~flag);
+    }
+
+    /** Sets a display flag on every row whose pallet ID is in the set, in one pass. */
+    void setFlag(Set<String> palletIds, byte flag) {
+        if (palletIds.isEmpty()) {
+            return;
+        }
+        for (int row = 0; row < rowCount; row++) {
+            if (palletIds.contains(getPalletId(row))) {
+                flags[row] |= flag;
+            }
+        }
+    }
+
+    void clearFlag(byte flag) {
+        for (int row = 0; row < rowCount; row++) {
+            flags[row] &= (byte) ~flag;
+        }
+    }
+
+    SessionRow getRow(int row) {
+        return new SessionRow(getPalletId(row), getArticle(row), quantities[row], getNotes(row));
+    }
+
+    List<SessionRow> snapshotRows() {
+        List<SessionRow> rows = new ArrayList<>(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            rows.add(getRow(row));
+        }
+        return rows;
+    }
+
+    int addRow(String palletId, String article, int quantity, String note) {
+        int row = store(palletId, article, quantity, note);
+        fireTableRowsInserted(row, row);
+        return row;
+    }
+
+    void addRows(List<SessionRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        int first = rowCount;
+        for (SessionRow row : rows) {
+            store(row.palletId(), row.article(), row.quantity(), row.notes());
+        }
+        fireTableRowsInserted(first, rowCount - 1);
+    }
+
+    void removeRow(int row) {
+        palletIdIndex.remove(getPalletId(row));
+        searchIndex.remove(searchKeys[row], getPalletId(row), articleIds[row], getNotes(row));
+        summary.rowRemoved(articleIds[row], quantities[row]);
+
+        int tail = rowCount - row - 1;
+        System.arraycopy(palletIds, row + 1, palletIds, row, tail);
+        System.arraycopy(palletIdText, row + 1, palletIdText, row, tail);
+        System.arraycopy(articleIds, row + 1, articleIds, row, tail);
+        System.arraycopy(quantities, row + 1, quantities, row, tail);
+        System.arraycopy(notes, row + 1, notes, row, tail);
+        System.arraycopy(flags, row + 1, flags, row, tail);
+        System.arraycopy(searchKeys, row + 1, searchKeys, row, tail);
+        rowCount--;
+        palletIdText[rowCount] = null;
+        notes[rowCount] = null;
+        fireTableRowsDeleted(row, row);
+    }
+
+    void clear() {
+        Arrays.fill(palletIdText, 0, rowCount, null);
+        Arrays.fill(notes, 0, rowCount, null);
+        Arrays.fill(flags, 0, rowCount, (byte) 0);
+        rowCount = 0;
+        palletIdIndex.clear();
+        summary.clear();
+        searchIndex.clear();
+        nextSearchKey = 0;
+        fireTableDataChanged();
+    }
+
+    void setArticleAndQuantity(int row, String article, int quantity) {
+        int articleId = articles.idOf(article);
+        summary.rowRemoved(articleIds[row], quantities[row]);
+        searchIndex.articleChanged(searchKeys[row], articleIds[row], articleId);
+        articleIds[row] = articleId;
+        quantities[row] = quantity;
+        summary.rowAdded(articleId, quantity);
+        fireTableRowsUpdated(row, row);
+    }
+
+    boolean containsPalletId(String palletId) {
+        return palletIdIndex.contains(palletId);
+    }
+
+    /** Returns the row of the pallet, found through its search key without scanning the table, or -1. */
+    int findRow(String palletId) {
+        int key = palletIdIndex.get(palletId);
+        if (key < 0) {
+            return -1;
+        }
+        int row = Arrays.binarySearch(searchKeys, 0, rowCount, key);
+        return row >= 0 ? row : -1;
+    }
+
+    SessionSummary summary() {
+        return summary;
+    }
+
+    SessionSearchIndex.Matches search(String query) {
+        return searchIndex.search(query);
+    }
+
+    int searchKeyAt(int row) {
+        return searchKeys[row];
+    }
+
+    /** Returns the row of the first match at or after {@code row}, wrapping around, or -1. */
+    int nextMatch(SessionSearchIndex.Matches matches, int row) {
+        if (rowCount == 0) {
+            return -1;
+        }
+        int key = matches.nextKey(row < rowCount ? searchKeys[Math.max(0, row)] : Integer.MAX_VALUE);
+        if (key < 0) {
+            key = matches.nextKey(0);
+        }
+        return key < 0 ? -1 : Arrays.binarySearch(searchKeys, 0, rowCount, key);
+    }
+
+    private int store(String palletId, String article, int quantity, String note) {
+        ensureCapacity(rowCount + 1);
+        int row = rowCount++;
+        long numeric = numericValue(palletId);
+        palletIds[row] = numeric;
+        palletIdText[row] = Long.toString(numeric).equals(palletId) ? null : palletId;
+        articleIds[row] = articles.idOf(article);
+        quantities[row] = quantity;
+        notes[row] = note == null || note.isEmpty() ? null : note;
+        flags[row] = 0;
+        searchKeys[row] = nextSearchKey++;
+        palletIdIndex.add(palletId, searchKeys[row]);
+        searchIndex.add(searchKeys[row], palletId, articleIds[row], note == null ? "" : note);
+        summary.rowAdded(articleIds[row], quantity);
+        return row;
+    }
+
+    // Pallet IDs are validated with Long.parseLong on scan; anything else falls back to 0 plus its text.
+    private static long numericValue(String palletId) {
+        try {
+            return Long.parseLong(palletId);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= palletIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, palletIds.length + (palletIds.length >> 1));
+        palletIds = Arrays.copyOf(palletIds, newCapacity);
+        palletIdText = Arrays.copyOf(palletIdText, newCapacity);
+        articleIds = Arrays.copyOf(articleIds, newCapacity);
+        quantities = Arrays.copyOf(quantities, newCapacity);
+        notes = Arrays.copyOf(notes, newCapacity);
+        flags = Arrays.copyOf(flags, newCapacity);
+        searchKeys = Arrays.copyOf(searchKeys, newCapacity);
+    }
+}
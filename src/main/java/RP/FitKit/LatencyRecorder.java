@@ -0,0 +1,145 @@
+package RP.FitKit;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide latency histograms for the stages of a scan. Each stage records into a log-linear
+ * histogram (16 sub-buckets per power of two, so every percentile is within about 6% of the true
+ * value) that needs no allocation and no locking per sample, which keeps it cheap enough to leave
+ * on in production.
+ */
+final class LatencyRecorder {
+
+    enum Stage {
+        SCAN_TO_DISPLAY("Scan tot weergave"),
+        LOOKUP("Opzoeken (cache of database)"),
+        DATABASE_LOOKUP("SQL-opzoeking, enkel"),
+        DATABASE_BATCH("SQL-opzoeking, batch"),
+        ROW_COMMIT("Rij toevoegen"),
+        JOURNAL_APPEND("Journaal, record aanbieden"),
+        JOURNAL_FSYNC("Journaal, fsync"),
+        SNAPSHOT_CAPTURE("Snapshot, toestand vastleggen"),
+        SNAPSHOT_WRITE("Snapshot, wegschrijven"),
+        SUMMARY_UPDATE("Overzicht bijwerken"),
+        SEARCH("Zoeken"),
+        TABLE_PAINT("Tabel tekenen");
+
+        final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    record Snapshot(long count, long p50Nanos, long p90Nanos, long p99Nanos, long maxNanos, long meanNanos) {
+    }
+
+    private static final Map<Stage, Histogram> HISTOGRAMS = new EnumMap<>(Stage.class);
+
+    static {
+        for (Stage stage : Stage.values()) {
+            HISTOGRAMS.put(stage, new Histogram());
+        }
+    }
+
+    private LatencyRecorder() {
+    }
+
+    /** Records the time since {@code startNanos}, a value taken from {@link System#nanoTime()}. */
+    static void recordSince(Stage stage, long startNanos) {
+        record(stage, System.nanoTime() - startNanos);
+    }
+
+    static void record(Stage stage, long nanos) {
+        HISTOGRAMS.get(stage).record(Math.max(0, nanos));
+    }
+
+    static Snapshot snapshot(Stage stage) {
+        return HISTOGRAMS.get(stage).snapshot();
+    }
+
+    static void reset() {
+        for (Histogram histogram : HISTOGRAMS.values()) {
+            histogram.reset();
+        }
+    }
+
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            counts.incrementAndGet(indexFor(value));
+            total.incrementAndGet();
+            sum.addAndGet(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            total.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        // Samples recorded while the snapshot is taken may be counted in some fields and not yet in others.
+        Snapshot snapshot() {
+            long[] copy = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+                count += copy[i];
+            }
+            if (count == 0) {
+                return new Snapshot(0, 0, 0, 0, 0, 0);
+            }
+            long maximum = max.get();
+            return new Snapshot(count, percentile(copy, count, 0.50, maximum), percentile(copy, count, 0.90, maximum),
+                    percentile(copy, count, 0.99, maximum), maximum, sum.get() / Math.max(1, total.get()));
+        }
+
+        static int indexFor(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            int shift = magnitude - SUB_BUCKET_BITS;
+            int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+        }
+
+        // The midpoint of the bucket's value range.
+        static long valueFor(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+            int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+            long lower = (long) (SUB_BUCKETS + subBucket) << shift;
+            return lower + ((1L << shift) >> 1);
+        }
+
+        private static long percentile(long[] counts, long count, double quantile, long maximum) {
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(valueFor(i), maximum);
+                }
+            }
+            return maximum;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package RP.FitKit;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive longs to non-negative ints with linear probing. Removal
+ * shifts the following entries back instead of leaving tombstones, so lookups stay short after
+ * many deletes.
+ */
+final class LongIntHashMap {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // 0 marks an empty slot; the value 0 itself is tracked separately.
+    private long[] slots;
+    private int[] values;
+    private boolean containsZero;
+    private int zeroValue;
+    private int size;
+
+    LongIntHashMap() {
+        this(16);
+    }
+
+    LongIntHashMap(int expectedSize) {
+        slots = new long[tableSizeFor(expectedSize)];
+        values = new int[slots.length];
+    }
+
+    /** Adds the key with its value; a key that is already present keeps its value and false is returned. */
+    boolean putIfAbsent(long key, int value) {
+        if (key == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            zeroValue = value;
+            size++;
+            return true;
+        }
+        int mask = slots.length - 1;
+        int index = mix(key) & mask;
+        while (slots[index] != 0) {
+            if (slots[index] == key) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        slots[index] = key;
+        values[index] = value;
+        if (++size > slots.length * LOAD_FACTOR) {
+            rehash(slots.length * 2);
+        }
+        return true;
+    }
+
+    /** Returns the value of the key, or -1 when it is absent. */
+    int get(long key) {
+        if (key == 0) {
+            return containsZero ? zeroValue : -1;
+        }
+        int mask = slots.length - 1;
+        int index = mix(key) & mask;
+        while (slots[index] != 0) {
+            if (slots[index] == key) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    boolean remove(long key) {
+        if (key == 0) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int mask = slots.length - 1;
+        int index = mix(key) & mask;
+        while (slots[index] != key) {
+            if (slots[index] == 0) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        slots[index] = 0;
+        size--;
+
+        // Move later entries of the same probe run into the freed slot where needed.
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (slots[next] != 0) {
+            int home = mix(slots[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                slots[gap] = slots[next];
+                values[gap] = values[next];
+                slots[next] = 0;
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(slots, 0);
+        containsZero = false;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldSlots = slots;
+        int[] oldValues = values;
+        slots = new long[capacity];
+        values = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldSlots.length; i++) {
+            long key = oldSlots[i];
+            if (key != 0) {
+                int index = mix(key) & mask;
+                while (slots[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                slots[index] = key;
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        return Math.max(16, capacity);
+    }
+
+    private static int mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+}
@@ -1,11 +1,25 @@
 package RP.FitKit;
 
 import javax.swing.*;
+import java.util.Arrays;
 
 //TIP To <b>Run</b> code, press <shortcut actionId="Run"/> or
 // click the <icon src="AllIcons.Actions.Execute"/> icon in the gutter.
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(BatchRunner.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("--merge")) {
+            System.exit(SessionMerger.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            int exitCode = CountServer.run(Arrays.copyOfRange(args, 1, args.length));
+            if (exitCode != 0) {
+                System.exit(exitCode);
+            }
+            return;
+        }
         SwingUtilities.invokeLater(() -> {
             try {
                 UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
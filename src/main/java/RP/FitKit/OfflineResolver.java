@@ -0,0 +1,114 @@
+package RP.FitKit;
+
+import javax.swing.*;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically checks whether the database is reachable again and resolves the pending queue in
+ * batches, each with one set-based lookup. While the app is offline the database is probed on every
+ * tick, also when nothing is queued. Results are delivered on the EDT; the listener removes
+ * them from the queue once the table has been updated.
+ */
+class OfflineResolver implements AutoCloseable {
+
+    interface Listener {
+        void onConnectionState(boolean online);
+
+        // A null PalletInfo means the label does not exist in the database.
+        void onResolved(Map<String, PalletInfo> resolved);
+    }
+
+    private static final int BATCH_SIZE = PalletRepository.MAX_BATCH_SIZE;
+    private static final long INTERVAL_SECONDS = 5;
+
+    private final ConnectionPool pool;
+    private final PalletLookup lookup;
+    private final PendingLookupQueue queue;
+    private final Listener listener;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "offline-resolver");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean offline;
+
+    OfflineResolver(ConnectionPool pool, PalletLookup lookup, PendingLookupQueue queue, Listener listener) {
+        this.pool = pool;
+        this.lookup = lookup;
+        this.queue = queue;
+        this.listener = listener;
+    }
+
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::resolvePending, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    void resolveNow() {
+        scheduler.execute(this::resolvePending);
+    }
+
+    void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    private void resolvePending() {
+        try {
+            while (true) {
+                List<String> batch = queue.peek(BATCH_SIZE);
+                if (batch.isEmpty()) {
+                    if (offline && pool.isHealthy()) {
+                        SwingUtilities.invokeLater(() -> listener.onConnectionState(true));
+                    }
+                    return;
+                }
+                if (!pool.isHealthy()) {
+                    SwingUtilities.invokeLater(() -> listener.onConnectionState(false));
+                    return;
+                }
+
+                Map<String, PalletInfo> resolved = new LinkedHashMap<>();
+                boolean online = resolveBatch(batch, resolved);
+                // Wait for the EDT so the next batch never re-reads IDs that are still being applied.
+                SwingUtilities.invokeAndWait(() -> {
+                    if (!resolved.isEmpty()) {
+                        listener.onResolved(resolved);
+                    }
+                    listener.onConnectionState(online);
+                });
+                if (!online) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean resolveBatch(List<String> batch, Map<String, PalletInfo> resolved) {
+        Map<String, PalletInfo> found = new HashMap<>();
+        try {
+            lookup.lookupAll(batch, found::put);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+        for (String palletId : batch) {
+            resolved.put(palletId, found.get(palletId));
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,73 @@
+package RP.FitKit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Constant-time lookup of the pallet IDs in the session table, each with an int value such as the
+ * row's search key. IDs are kept as primitive longs; the rare ID whose text does not round-trip
+ * through {@code Long.parseLong} (leading zeros, a plus sign) is kept as a string, so "007" and
+ * "7" stay different pallets.
+ */
+final class PalletIdIndex {
+    private final LongIntHashMap numericIds = new LongIntHashMap(1024);
+    private final Map<String, Integer> otherIds = new HashMap<>();
+
+    /** Duplicate check only: adds the ID without a meaningful value. */
+    boolean add(String palletId) {
+        return add(palletId, 0);
+    }
+
+    /** Adds the ID with a non-negative value; an ID that is already present keeps its value. */
+    boolean add(String palletId, int value) {
+        long key = keyOf(palletId);
+        return key != Long.MIN_VALUE ? numericIds.putIfAbsent(key, value) : otherIds.putIfAbsent(palletId, value) == null;
+    }
+
+    boolean remove(String palletId) {
+        long key = keyOf(palletId);
+        return key != Long.MIN_VALUE ? numericIds.remove(key) : otherIds.remove(palletId) != null;
+    }
+
+    boolean contains(String palletId) {
+        return get(palletId) >= 0;
+    }
+
+    /** Returns the value added with the ID, or -1 when the ID is not in the index. */
+    int get(String palletId) {
+        if (palletId == null) {
+            return -1;
+        }
+        long key = keyOf(palletId);
+        if (key != Long.MIN_VALUE) {
+            return numericIds.get(key);
+        }
+        Integer value = otherIds.get(palletId);
+        return value != null ? value : -1;
+    }
+
+    void clear() {
+        numericIds.clear();
+        otherIds.clear();
+    }
+
+    int size() {
+        return numericIds.size() + otherIds.size();
+    }
+
+    // Long.MIN_VALUE doubles as "not canonical"; its own text is routed to the string map as well.
+    private static long keyOf(String palletId) {
+        if (palletId.isEmpty() || palletId.length() > 19) {
+            return Long.MIN_VALUE;
+        }
+        char first = palletId.charAt(0);
+        if (first == '+' || (first == '0' && palletId.length() > 1) || (first == '-' && palletId.startsWith("-0"))) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return Long.parseLong(palletId);
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package RP.FitKit;
+
+record PalletInfo(String fullName, String articleQuantity) {
+}
@@ -0,0 +1,128 @@
+package RP.FitKit;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+
+/**
+ * Size-bounded LRU cache with a time-to-live in front of the pallet label lookup. Only found
+ * labels are cached, so a label created during the count is picked up on its first scan.
+ */
+class PalletLabelCache implements PalletLookup {
+
+    private record Entry(PalletInfo info, long loadedAt) {
+    }
+
+    private final PalletLookup delegate;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    PalletLabelCache(PalletLookup delegate, int maxEntries, Duration ttl) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > PalletLabelCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public Optional<PalletInfo> lookup(String palletId) throws SQLException {
+        PalletInfo cached = get(palletId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<PalletInfo> info = delegate.lookup(palletId);
+        info.ifPresent(i -> put(palletId, i));
+        return info;
+    }
+
+    @Override
+    public void lookupAll(Collection<String> palletIds, BiConsumer<String, PalletInfo> sink) throws SQLException {
+        List<String> missing = new ArrayList<>();
+        for (String palletId : palletIds) {
+            PalletInfo cached = get(palletId);
+            if (cached != null) {
+                sink.accept(palletId, cached);
+            } else {
+                missing.add(palletId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            delegate.lookupAll(missing, (palletId, info) -> {
+                put(palletId, info);
+                sink.accept(palletId, info);
+            });
+        }
+    }
+
+    synchronized PalletInfo get(String palletId) {
+        Entry entry = entries.get(palletId);
+        if (entry != null && System.nanoTime() - entry.loadedAt() < ttlNanos) {
+            hits++;
+            return entry.info();
+        }
+        if (entry != null) {
+            entries.remove(palletId);
+            evictions++;
+        }
+        misses++;
+        return null;
+    }
+
+    synchronized void put(String palletId, PalletInfo info) {
+        entries.put(palletId, new Entry(info, System.nanoTime()));
+    }
+
+    int prefetch(PalletRepository repository) throws SQLException {
+        int[] count = {0};
+        repository.streamAll((palletId, info) -> {
+            put(palletId, info);
+            count[0]++;
+        });
+        return count[0];
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Cache: " + entries.size() + " labels, " + hits + " hits, " + misses + " misses, " + evictions + " verwijderd";
+    }
+}
@@ -0,0 +1,20 @@
+package RP.FitKit;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+
+interface PalletLookup {
+    Optional<PalletInfo> lookup(String palletId) throws SQLException;
+
+    // Reports every ID that has a label; implementations backed by the database override this with set-based queries.
+    default void lookupAll(Collection<String> palletIds, BiConsumer<String, PalletInfo> sink) throws SQLException {
+        for (String palletId : palletIds) {
+            Optional<PalletInfo> info = lookup(palletId);
+            if (info.isPresent()) {
+                sink.accept(palletId, info.get());
+            }
+        }
+    }
+}
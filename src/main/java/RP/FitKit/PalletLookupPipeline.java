@@ -0,0 +1,80 @@
+package RP.FitKit;
+
+import javax.swing.*;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs pallet lookups in the background and hands the results back to the EDT in scan order,
+ * so a slow lookup never blocks the scanner and never lets a later scan overtake an earlier one.
+ */
+class PalletLookupPipeline implements AutoCloseable {
+
+    /** The outcome of one lookup; {@code error} is set when the lookup failed, for whatever reason. */
+    record Result(String palletId, PalletInfo info, Exception error) {
+        boolean isFound() {
+            return info != null;
+        }
+    }
+
+    private final PalletLookup lookup;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger pending = new AtomicInteger();
+    private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+    PalletLookupPipeline(PalletLookup lookup) {
+        this.lookup = lookup;
+    }
+
+    // Must be called from the EDT; results are delivered there in the order they were submitted.
+    void submit(String palletId, Consumer<Result> onResult) {
+        long submittedAt = System.nanoTime();
+        pending.incrementAndGet();
+        // An unexpected failure becomes an error result too, so the scan is queued instead of lost.
+        CompletableFuture<Result> result = CompletableFuture.supplyAsync(() -> runLookup(palletId), executor)
+                .handle((r, ex) -> ex == null ? r : new Result(palletId, null, asException(ex)));
+
+        tail = tail.thenCombine(result, (ignored, r) -> r)
+                .thenAcceptAsync(r -> {
+                    pending.decrementAndGet();
+                    onResult.accept(r);
+                    LatencyRecorder.recordSince(LatencyRecorder.Stage.SCAN_TO_DISPLAY, submittedAt);
+                }, SwingUtilities::invokeLater)
+                .exceptionally(ex -> {
+                    ex.printStackTrace();
+                    return null;
+                });
+    }
+
+    int pendingCount() {
+        return pending.get();
+    }
+
+    private static Exception asException(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        return cause instanceof Exception e ? e : new RuntimeException(cause);
+    }
+
+    private Result runLookup(String palletId) {
+        long start = System.nanoTime();
+        try {
+            Optional<PalletInfo> info = lookup.lookup(palletId);
+            return new Result(palletId, info.orElse(null), null);
+        } catch (SQLException e) {
+            return new Result(palletId, null, e);
+        } finally {
+            LatencyRecorder.recordSince(LatencyRecorder.Stage.LOOKUP, start);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,141 @@
+package RP.FitKit;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+
+class PalletRepository implements PalletLookup {
+    static final String LOOKUP_QUERY = """
+            SELECT oa.full_name, apl.article_quantity FROM article_pallet_labels apl 
+            JOIN original_articles oa ON oa.id = apl.original_article_id 
+            WHERE apl.distribution_count = ?
+            """;
+
+    static final String PREFETCH_QUERY = """
+            SELECT apl.distribution_count, oa.full_name, apl.article_quantity FROM article_pallet_labels apl 
+            JOIN original_articles oa ON oa.id = apl.original_article_id 
+            """;
+
+    static final String BATCH_LOOKUP_QUERY_PREFIX = """
+            SELECT apl.distribution_count, oa.full_name, apl.article_quantity FROM article_pallet_labels apl
+            JOIN original_articles oa ON oa.id = apl.original_article_id
+            WHERE apl.distribution_count IN (""";
+
+    // SQL Server allows 2100 parameters per statement.
+    static final int MAX_BATCH_SIZE = 1000;
+
+    private static final int[] BATCH_SIZES = {1, 8, 32, 128, 512, MAX_BATCH_SIZE};
+    private static final String[] BATCH_QUERIES = batchQueries();
+    private static final int PREFETCH_FETCH_SIZE = 5000;
+
+    private final ConnectionPool pool;
+
+    PalletRepository(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public Optional<PalletInfo> lookup(String palletId) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return lookupOne(palletId);
+        } finally {
+            LatencyRecorder.recordSince(LatencyRecorder.Stage.DATABASE_LOOKUP, start);
+        }
+    }
+
+    private Optional<PalletInfo> lookupOne(String palletId) throws SQLException {
+        return pool.execute(connection -> {
+            PreparedStatement pstmt = connection.prepare(LOOKUP_QUERY);
+            pstmt.setString(1, palletId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.of(new PalletInfo(rs.getString("full_name"), rs.getString("article_quantity")));
+                }
+                return Optional.empty();
+            }
+        });
+    }
+
+    /**
+     * Resolves the IDs in chunks of at most {@link #MAX_BATCH_SIZE} and hands every label found to
+     * {@code sink} as the rows arrive; IDs without a label are simply not reported. Each chunk is
+     * padded with its last ID up to one of a few fixed sizes, so every connection only ever
+     * prepares a handful of distinct IN-list statements.
+     */
+    @Override
+    public void lookupAll(Collection<String> palletIds, BiConsumer<String, PalletInfo> sink) throws SQLException {
+        List<String> chunk = new ArrayList<>(Math.min(palletIds.size(), MAX_BATCH_SIZE));
+        for (String palletId : palletIds) {
+            chunk.add(palletId);
+            if (chunk.size() == MAX_BATCH_SIZE) {
+                lookupChunk(chunk, sink);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            lookupChunk(chunk, sink);
+        }
+    }
+
+    private void lookupChunk(List<String> chunk, BiConsumer<String, PalletInfo> sink) throws SQLException {
+        int bucket = bucketFor(chunk.size());
+        String sql = BATCH_QUERIES[bucket];
+        int parameters = BATCH_SIZES[bucket];
+        long start = System.nanoTime();
+        pool.execute(connection -> {
+            PreparedStatement pstmt = connection.prepare(sql);
+            String last = chunk.get(chunk.size() - 1);
+            for (int i = 0; i < parameters; i++) {
+                pstmt.setString(i + 1, i < chunk.size() ? chunk.get(i) : last);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    sink.accept(rs.getString(1), new PalletInfo(rs.getString(2), rs.getString(3)));
+                }
+            }
+            return null;
+        });
+        LatencyRecorder.recordSince(LatencyRecorder.Stage.DATABASE_BATCH, start);
+    }
+
+    private static int bucketFor(int size) {
+        for (int bucket = 0; bucket < BATCH_SIZES.length; bucket++) {
+            if (size <= BATCH_SIZES[bucket]) {
+                return bucket;
+            }
+        }
+        throw new IllegalArgumentException("Maximaal " + MAX_BATCH_SIZE + " pallet IDs per query, niet " + size);
+    }
+
+    private static String[] batchQueries() {
+        String[] queries = new String[BATCH_SIZES.length];
+        for (int bucket = 0; bucket < BATCH_SIZES.length; bucket++) {
+            StringBuilder sql = new StringBuilder(BATCH_LOOKUP_QUERY_PREFIX);
+            for (int i = 0; i < BATCH_SIZES[bucket]; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            queries[bucket] = sql.append(')').toString();
+        }
+        return queries;
+    }
+
+    // Streams every label in one forward-only query; rows are handed to the sink as they arrive.
+    void streamAll(BiConsumer<String, PalletInfo> sink) throws SQLException {
+        pool.execute(connection -> {
+            PreparedStatement pstmt = connection.prepare(PREFETCH_QUERY);
+            pstmt.setFetchSize(PREFETCH_FETCH_SIZE);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    sink.accept(rs.getString(1), new PalletInfo(rs.getString(2), rs.getString(3)));
+                }
+            }
+            return null;
+        });
+    }
+}
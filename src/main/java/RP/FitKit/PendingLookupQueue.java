@@ -0,0 +1,87 @@
+package RP.FitKit;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Durable queue of scanned pallet IDs that could not be looked up yet. Every scan is appended
+ * to the file before it is acknowledged, so a crash while offline loses nothing.
+ */
+class PendingLookupQueue {
+    private final Path file;
+    private final LinkedHashSet<String> palletIds = new LinkedHashSet<>();
+
+    PendingLookupQueue(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    palletIds.add(line.trim());
+                }
+            }
+        }
+    }
+
+    synchronized boolean add(String palletId) throws IOException {
+        if (!palletIds.add(palletId)) {
+            return false;
+        }
+        Files.writeString(file, palletId + System.lineSeparator(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        return true;
+    }
+
+    synchronized void removeAll(Collection<String> resolved) throws IOException {
+        if (palletIds.removeAll(resolved)) {
+            rewrite();
+        }
+    }
+
+    synchronized void clear() throws IOException {
+        palletIds.clear();
+        Files.deleteIfExists(file);
+    }
+
+    synchronized List<String> peek(int max) {
+        List<String> batch = new ArrayList<>(Math.min(max, palletIds.size()));
+        for (String palletId : palletIds) {
+            if (batch.size() == max) {
+                break;
+            }
+            batch.add(palletId);
+        }
+        return batch;
+    }
+
+    synchronized boolean contains(String palletId) {
+        return palletIds.contains(palletId);
+    }
+
+    synchronized int size() {
+        return palletIds.size();
+    }
+
+    private void rewrite() throws IOException {
+        if (palletIds.isEmpty()) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (String palletId : palletIds) {
+                writer.write(palletId);
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,128 @@
+package RP.FitKit;
+
+import javax.swing.*;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Buffers complete scans between the input field and the lookup layer. Accepting a scan only
+ * validates it and appends it to a bounded queue; the queue is drained in one go once the EDT has
+ * handled the keystrokes that are already waiting, so a burst of scans is dispatched together and
+ * in order. A repeat of the previous scan within a short window (a double read) and a scan that is
+ * already waiting in the queue are coalesced away. Also keeps the scan rate over the last minute.
+ * <p>
+ * Used from the EDT only.
+ */
+class ScanInputBuffer {
+
+    enum Rejection {
+        INVALID("Pallet ID moet een geldig getal zijn."),
+        DUPLICATE("Dubbele scan genegeerd."),
+        BUFFER_FULL("Scanbuffer is vol, scan deze pallet opnieuw.");
+
+        final String message;
+
+        Rejection(String message) {
+            this.message = message;
+        }
+    }
+
+    private static final long RATE_WINDOW_NANOS = Duration.ofMinutes(1).toNanos();
+
+    private final int capacity;
+    private final long repeatWindowNanos;
+    private final Consumer<String> dispatch;
+    private final BiConsumer<String, Rejection> rejected;
+    private final ArrayDeque<String> queue = new ArrayDeque<>();
+    private final ArrayDeque<Long> acceptedAt = new ArrayDeque<>();
+    private boolean drainScheduled;
+    private String lastScan;
+    private long lastScanAt;
+    private long accepted;
+    private long coalesced;
+    private long invalid;
+
+    /**
+     * @param dispatch receives every accepted pallet ID, in scan order
+     * @param rejected receives the input and the reason for every scan that is not dispatched
+     */
+    ScanInputBuffer(int capacity, Duration repeatWindow, Consumer<String> dispatch, BiConsumer<String, Rejection> rejected) {
+        this.capacity = capacity;
+        this.repeatWindowNanos = repeatWindow.toNanos();
+        this.dispatch = dispatch;
+        this.rejected = rejected;
+    }
+
+    /** Returns whether the scan was queued for dispatch. Empty input is ignored silently. */
+    boolean offer(String input) {
+        String palletId = input.trim();
+        if (palletId.isEmpty()) {
+            return false;
+        }
+        try {
+            Long.parseLong(palletId);
+        } catch (NumberFormatException e) {
+            invalid++;
+            rejected.accept(palletId, Rejection.INVALID);
+            return false;
+        }
+
+        long now = System.nanoTime();
+        boolean repeat = palletId.equals(lastScan) && now - lastScanAt < repeatWindowNanos;
+        lastScan = palletId;
+        lastScanAt = now;
+        if (repeat || queue.contains(palletId)) {
+            coalesced++;
+            rejected.accept(palletId, Rejection.DUPLICATE);
+            return false;
+        }
+        if (queue.size() >= capacity) {
+            rejected.accept(palletId, Rejection.BUFFER_FULL);
+            return false;
+        }
+
+        queue.add(palletId);
+        accepted++;
+        acceptedAt.add(now);
+        if (!drainScheduled) {
+            drainScheduled = true;
+            // Runs after the key events already queued on the EDT, so one burst is dispatched together.
+            SwingUtilities.invokeLater(this::drain);
+        }
+        return true;
+    }
+
+    private void drain() {
+        drainScheduled = false;
+        String palletId;
+        while ((palletId = queue.poll()) != null) {
+            dispatch.accept(palletId);
+        }
+    }
+
+    int queued() {
+        return queue.size();
+    }
+
+    int scansPerMinute() {
+        long cutoff = System.nanoTime() - RATE_WINDOW_NANOS;
+        while (!acceptedAt.isEmpty() && acceptedAt.peek() < cutoff) {
+            acceptedAt.poll();
+        }
+        return acceptedAt.size();
+    }
+
+    long accepted() {
+        return accepted;
+    }
+
+    long coalesced() {
+        return coalesced;
+    }
+
+    long invalid() {
+        return invalid;
+    }
+}
@@ -0,0 +1,355 @@
+package RP.FitKit;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Merges the sessions of several stations into one count. Every station's rows are split into
+ * partitions by a hash of the pallet ID, and each partition is deduplicated on its own thread, so
+ * no lock or shared map is needed and the work scales with the number of cores. A pallet that was
+ * counted on more than one station with a different article or quantity is a conflict: the version
+ * that was corrected by hand wins, otherwise the one from the station listed first, and all
+ * versions are kept for the conflict report. The merged rows keep the order of the stations and
+ * of the rows within each station.
+ */
+final class SessionMerger {
+    static final String USAGE = """
+            Gebruik: --merge [opties] <sessiebestand> <sessiebestand> ...
+              --output <bestand>     samengevoegde telling: .dat (sessie), .csv of .xml (Exact)
+              --conflicts <bestand>  conflictrapport, tab-gescheiden (standaard: stderr)
+            Exitcode 3 betekent: samengevoegd, maar er zijn conflicten.
+            """;
+
+    private static final int PARTITIONS = 64;
+
+    /** One station's session; {@code name} is used in the conflict report. */
+    record Station(String name, SessionStore.State state) {
+    }
+
+    record Version(String station, String article, int quantity, boolean edited) {
+    }
+
+    /** A pallet counted differently on several stations; {@code chosen} is the version in the merged count. */
+    record Conflict(String palletId, Version chosen, List<Version> versions) {
+    }
+
+    record Result(SessionStore.State merged, List<Conflict> conflicts, int inputRows, int duplicates, int skippedRecords) {
+    }
+
+    private SessionMerger() {
+    }
+
+    /** Entry point for {@code --merge}; returns the process exit code. */
+    static int run(String[] args) {
+        List<Path> files = new ArrayList<>();
+        Path output = null;
+        Path conflictsFile = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--output", "--conflicts" -> {
+                    if (i + 1 >= args.length) {
+                        System.err.println("Optie " + args[i] + " verwacht een waarde.");
+                        System.err.print(USAGE);
+                        return 2;
+                    }
+                    if (args[i].equals("--output")) {
+                        output = Path.of(args[++i]);
+                    } else {
+                        conflictsFile = Path.of(args[++i]);
+                    }
+                }
+                default -> files.add(Path.of(args[i]));
+            }
+        }
+        if (output == null || files.size() < 2) {
+            System.err.println("Geef een --output en minstens twee sessiebestanden op.");
+            System.err.print(USAGE);
+            return 2;
+        }
+
+        long start = System.nanoTime();
+        try {
+            Result result = merge(loadAll(files));
+            writeMerged(result.merged(), output);
+            if (conflictsFile != null) {
+                try (Writer out = Files.newBufferedWriter(conflictsFile, StandardCharsets.UTF_8)) {
+                    writeReport(result.conflicts(), out);
+                }
+            } else if (!result.conflicts().isEmpty()) {
+                Writer err = new OutputStreamWriter(System.err, StandardCharsets.UTF_8);
+                writeReport(result.conflicts(), err);
+                err.flush();
+            }
+            System.err.println("Klaar in " + Duration.ofNanos(System.nanoTime() - start).toMillis() + " ms: "
+                    + result.merged().rows().size() + " pallets uit " + files.size() + " sessies ("
+                    + result.inputRows() + " rijen, " + result.duplicates() + " dubbel, "
+                    + result.conflicts().size() + " conflicten, " + result.skippedRecords() + " beschadigde records overgeslagen).");
+            return result.conflicts().isEmpty() ? 0 : 3;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Fout bij lezen of schrijven: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /** Writes the merged count as a session snapshot, CSV or Exact XML, depending on the file extension. */
+    static void writeMerged(SessionStore.State merged, Path output) throws IOException {
+        String name = output.getFileName().toString().toLowerCase();
+        Path partial = output.resolveSibling(output.getFileName() + ".part");
+        boolean completed = false;
+        try {
+            if (name.endsWith(".csv") || name.endsWith(".xml")) {
+                try (Writer out = Files.newBufferedWriter(partial)) {
+                    if (name.endsWith(".csv")) {
+                        CsvExporter.export(merged.rows(), out, ExportProgress.NONE);
+                    } else {
+                        new ExactXmlExporter(LocalDate.now(), ExactXmlExporter.newEntryId()).export(merged.rows(), out, ExportProgress.NONE);
+                    }
+                }
+            } else {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partial), 64 * 1024)) {
+                    SessionSnapshotFormat.write(merged, out);
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                Files.deleteIfExists(partial);
+            }
+        }
+        Files.move(partial, output, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads a session copied from a station. Either the snapshot ({@code .dat}) or the journal
+     * ({@code .journal}) may be given; the other file is picked up when it lies next to it.
+     */
+    static Station load(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        String base = name.endsWith(".dat") || name.endsWith(".journal") ? name.substring(0, name.lastIndexOf('.')) : name;
+        Path snapshot = file.resolveSibling(base + ".dat");
+        Path journal = file.resolveSibling(base + ".journal");
+        if (!Files.exists(snapshot) && !Files.exists(journal)) {
+            snapshot = file;
+            journal = null;
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        String station = parent != null && parent.getFileName() != null ? parent.getFileName() + "/" + base : base;
+        return new Station(station, SessionStore.read(snapshot, journal));
+    }
+
+    /** Loads the sessions in parallel, in the order given. */
+    static List<Station> loadAll(List<Path> files) throws IOException {
+        List<Callable<Station>> tasks = new ArrayList<>(files.size());
+        for (Path file : files) {
+            tasks.add(() -> load(file));
+        }
+        return runAll(tasks);
+    }
+
+    static Result merge(List<Station> stations) throws IOException {
+        // Phase 1: for every station, the row positions per partition.
+        List<Callable<int[][]>> splits = new ArrayList<>(stations.size());
+        for (Station station : stations) {
+            splits.add(() -> split(station.state().rows()));
+        }
+        List<int[][]> partitioned = runAll(splits);
+
+        // Phase 2: every partition is merged independently.
+        List<Callable<Partition>> merges = new ArrayList<>(PARTITIONS);
+        for (int p = 0; p < PARTITIONS; p++) {
+            int partition = p;
+            merges.add(() -> mergePartition(stations, partitioned, partition));
+        }
+        List<Partition> partitions = runAll(merges);
+
+        int total = 0;
+        for (Partition partition : partitions) {
+            total += partition.winners.size();
+        }
+        Candidate[] winners = new Candidate[total];
+        List<Conflict> conflicts = new ArrayList<>();
+        int next = 0;
+        int duplicates = 0;
+        for (Partition partition : partitions) {
+            for (Candidate candidate : partition.winners) {
+                winners[next++] = candidate;
+            }
+            conflicts.addAll(partition.conflicts);
+            duplicates += partition.duplicates;
+        }
+        Arrays.sort(winners, (a, b) -> Long.compare(a.order, b.order));
+
+        List<SessionRow> rows = new ArrayList<>(winners.length);
+        Set<String> edited = new LinkedHashSet<>();
+        for (Candidate winner : winners) {
+            rows.add(winner.row);
+            if (winner.version.edited()) {
+                edited.add(winner.row.palletId());
+            }
+        }
+        conflicts.sort((a, b) -> a.palletId().compareTo(b.palletId()));
+
+        int inputRows = 0;
+        int skipped = 0;
+        for (Station station : stations) {
+            inputRows += station.state().rows().size();
+            skipped += station.state().skippedRecords();
+        }
+        return new Result(new SessionStore.State(rows, edited, skipped), conflicts, inputRows, duplicates, skipped);
+    }
+
+    /** Writes the conflicts as tab-separated lines, one per version, with the chosen version marked. */
+    static void writeReport(List<Conflict> conflicts, Writer out) throws IOException {
+        out.write("Pallet ID\tStation\tArtikel\tAantal\tHandmatig aangepast\tGekozen\n");
+        for (Conflict conflict : conflicts) {
+            for (Version version : conflict.versions()) {
+                out.write(conflict.palletId() + "\t" + version.station() + "\t" + version.article() + "\t" + version.quantity()
+                        + "\t" + (version.edited() ? "ja" : "nee") + "\t" + (version == conflict.chosen() ? "ja" : "") + "\n");
+            }
+        }
+    }
+
+    private static int[][] split(List<SessionRow> rows) {
+        int[] counts = new int[PARTITIONS];
+        int[] partitionOf = new int[rows.size()];
+        for (int i = 0; i < partitionOf.length; i++) {
+            partitionOf[i] = partitionFor(rows.get(i).palletId());
+            counts[partitionOf[i]]++;
+        }
+        int[][] positions = new int[PARTITIONS][];
+        for (int p = 0; p < PARTITIONS; p++) {
+            positions[p] = new int[counts[p]];
+            counts[p] = 0;
+        }
+        for (int i = 0; i < partitionOf.length; i++) {
+            int p = partitionOf[i];
+            positions[p][counts[p]++] = i;
+        }
+        return positions;
+    }
+
+    private static int partitionFor(String palletId) {
+        int hash = palletId.hashCode();
+        hash ^= hash >>> 16;
+        return (hash * 0x9E3779B9 >>> 26) & (PARTITIONS - 1);
+    }
+
+    private static final class Candidate {
+        final long order;
+        SessionRow row;
+        Version version;
+        List<Version> versions;
+
+        Candidate(long order, SessionRow row, Version version) {
+            this.order = order;
+            this.row = row;
+            this.version = version;
+        }
+    }
+
+    private static final class Partition {
+        final List<Candidate> winners = new ArrayList<>();
+        final List<Conflict> conflicts = new ArrayList<>();
+        int duplicates;
+    }
+
+    private static Partition mergePartition(List<Station> stations, List<int[][]> partitioned, int partition) {
+        int expected = 0;
+        for (int[][] positions : partitioned) {
+            expected += positions[partition].length;
+        }
+        Map<String, Candidate> byPalletId = new HashMap<>(Math.max(16, expected * 4 / 3 + 1));
+        Partition result = new Partition();
+
+        for (int s = 0; s < stations.size(); s++) {
+            Station station = stations.get(s);
+            List<SessionRow> rows = station.state().rows();
+            Set<String> editedIds = station.state().editedPalletIds();
+            for (int position : partitioned.get(s)[partition]) {
+                SessionRow row = rows.get(position);
+                Version version = new Version(station.name(), row.article(), row.quantity(), editedIds.contains(row.palletId()));
+                Candidate candidate = byPalletId.get(row.palletId());
+                if (candidate == null) {
+                    candidate = new Candidate((long) s << 32 | position, row, version);
+                    byPalletId.put(row.palletId(), candidate);
+                    result.winners.add(candidate);
+                    continue;
+                }
+
+                result.duplicates++;
+                if (candidate.versions == null) {
+                    candidate.versions = new ArrayList<>(2);
+                    candidate.versions.add(candidate.version);
+                }
+                candidate.versions.add(version);
+                if (version.edited() && !candidate.version.edited()) {
+                    // The hand-corrected count wins, but the pallet keeps the place where it was first scanned.
+                    candidate.row = row;
+                    candidate.version = version;
+                }
+            }
+        }
+
+        for (Candidate winner : result.winners) {
+            if (winner.versions != null && differs(winner.versions)) {
+                result.conflicts.add(new Conflict(winner.row.palletId(), winner.version, List.copyOf(winner.versions)));
+            }
+        }
+        return result;
+    }
+
+    private static boolean differs(List<Version> versions) {
+        Version first = versions.get(0);
+        for (int i = 1; i < versions.size(); i++) {
+            Version other = versions.get(i);
+            if (other.quantity() != first.quantity() || !other.article().equals(first.article())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors())), r -> {
+            Thread thread = new Thread(r, "session-merge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package RP.FitKit;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares a snapshot of the table with the live labels in the database, one set-based query per
+ * chunk, on a background thread. Rows whose article no longer matches, whose label is gone, or
+ * whose registered quantity changed (for rows that were not edited by hand) are published to the
+ * listener on the EDT as they are found. Progress is reported through the worker's progress property.
+ */
+class SessionRevalidator extends SwingWorker<Integer, SessionRevalidator.Drift> {
+
+    interface Listener {
+        void onDrift(List<Drift> drifts);
+    }
+
+    /** A row as it was compared, and the live label; {@code live} is null when the label no longer exists. */
+    record Drift(SessionRow row, PalletInfo live) {
+        String describe() {
+            if (live == null) {
+                return "Label bestaat niet meer in de database";
+            }
+            if (!live.fullName().equals(row.article())) {
+                return "Artikel in de database: " + live.fullName();
+            }
+            return "Geregistreerd aantal in de database: " + live.articleQuantity();
+        }
+    }
+
+    private final PalletLookup lookup;
+    private final List<SessionRow> rows;
+    private final Set<String> editedPalletIds;
+    private final Listener listener;
+
+    SessionRevalidator(PalletLookup lookup, List<SessionRow> rows, Set<String> editedPalletIds, Listener listener) {
+        this.lookup = lookup;
+        this.rows = rows;
+        this.editedPalletIds = editedPalletIds;
+        this.listener = listener;
+    }
+
+    @Override
+    protected Integer doInBackground() throws Exception {
+        int drifted = 0;
+        int chunkSize = PalletRepository.MAX_BATCH_SIZE;
+        for (int start = 0; start < rows.size() && !isCancelled(); start += chunkSize) {
+            List<SessionRow> chunk = rows.subList(start, Math.min(rows.size(), start + chunkSize));
+            List<String> palletIds = new ArrayList<>(chunk.size());
+            for (SessionRow row : chunk) {
+                palletIds.add(row.palletId());
+            }
+            Map<String, PalletInfo> live = new HashMap<>(chunk.size() * 2);
+            lookup.lookupAll(palletIds, live::put);
+
+            for (SessionRow row : chunk) {
+                PalletInfo info = live.get(row.palletId());
+                if (hasDrifted(row, info)) {
+                    publish(new Drift(row, info));
+                    drifted++;
+                }
+            }
+            setProgress((int) Math.min(100, (start + chunk.size()) * 100L / rows.size()));
+        }
+        return drifted;
+    }
+
+    @Override
+    protected void process(List<Drift> drifts) {
+        if (!isCancelled()) {
+            listener.onDrift(drifts);
+        }
+    }
+
+    private boolean hasDrifted(SessionRow row, PalletInfo live) {
+        if (row.article().startsWith("---")) {
+            // Still waiting for its lookup; the offline resolver fills it in.
+            return false;
+        }
+        if (live == null || !live.fullName().equals(row.article())) {
+            return true;
+        }
+        if (editedPalletIds.contains(row.palletId())) {
+            return false;
+        }
+        try {
+            return Integer.parseInt(live.articleQuantity().trim()) != row.quantity();
+        } catch (NumberFormatException | NullPointerException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package RP.FitKit;
+
+record SessionRow(String palletId, String article, int quantity, String notes) {
+}
@@ -0,0 +1,437 @@
+package RP.FitKit;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.TreeMap;
+
+/**
+ * Search indexes over the rows of a session, kept up to date by {@link InventoryTableModel} on
+ * every change so a search never scans the table. Rows are identified by a key that is handed out
+ * in insertion order and never changes, so the index survives rows being removed before them.
+ * <ul>
+ *   <li>numeric pallet IDs sorted in primitive arrays, so a prefix is a few binary searches;
+ *       other pallet IDs in a sorted map;</li>
+ *   <li>the words of article names, pointing to the IDs of the articles in the
+ *       {@link ArticleDictionary}, and the rows per article ID;</li>
+ *   <li>the words of notes, each with its rows.</li>
+ * </ul>
+ * A query matches the rows for which every query word is a prefix of the pallet ID or of a word
+ * in the article name or the notes.
+ */
+final class SessionSearchIndex {
+
+    /** The keys of the matching rows. */
+    static final class Matches {
+        static final Matches NONE = new Matches(new BitSet());
+
+        private final BitSet keys;
+
+        private Matches(BitSet keys) {
+            this.keys = keys;
+        }
+
+        int count() {
+            return keys.cardinality();
+        }
+
+        boolean containsKey(int key) {
+            return keys.get(key);
+        }
+
+        /** Returns the first matching key at or after {@code key}, or -1. */
+        int nextKey(int key) {
+            return keys.nextSetBit(key);
+        }
+    }
+
+    private static final String[] NO_TOKENS = new String[0];
+
+    private final NumericIds numericIds = new NumericIds();
+    private final TreeMap<String, Integer> keyByOtherId = new TreeMap<>();
+    private final ArticleDictionary articles;
+    private final TreeMap<String, BitSet> articleIdsByToken = new TreeMap<>();
+    private KeyList[] keysByArticleId = new KeyList[64];
+    private final TreeMap<String, KeyList> keysByNoteToken = new TreeMap<>();
+    private int keyLimit;
+
+    SessionSearchIndex(ArticleDictionary articles) {
+        this.articles = articles;
+    }
+
+    void add(int key, String palletId, int articleId, String notes) {
+        keyLimit = Math.max(keyLimit, key + 1);
+        long number = canonicalNumber(palletId);
+        if (number >= 0) {
+            numericIds.add(number, key);
+        } else {
+            keyByOtherId.put(palletId.toLowerCase(Locale.ROOT), key);
+        }
+        addArticle(key, articleId);
+        addNotes(key, notes);
+    }
+
+    void remove(int key, String palletId, int articleId, String notes) {
+        if (canonicalNumber(palletId) >= 0) {
+            numericIds.remove(key);
+        } else {
+            keyByOtherId.remove(palletId.toLowerCase(Locale.ROOT), key);
+        }
+        removeArticle(key, articleId);
+        removeNotes(key, notes);
+    }
+
+    void articleChanged(int key, int oldArticleId, int newArticleId) {
+        if (oldArticleId != newArticleId) {
+            removeArticle(key, oldArticleId);
+            addArticle(key, newArticleId);
+        }
+    }
+
+    void notesChanged(int key, String oldNotes, String newNotes) {
+        if (!oldNotes.equals(newNotes)) {
+            removeNotes(key, oldNotes);
+            addNotes(key, newNotes);
+        }
+    }
+
+    void clear() {
+        numericIds.clear();
+        keyByOtherId.clear();
+        articleIdsByToken.clear();
+        Arrays.fill(keysByArticleId, null);
+        keysByNoteToken.clear();
+        keyLimit = 0;
+    }
+
+    Matches search(String query) {
+        String[] words = tokens(query);
+        if (words.length == 0) {
+            return Matches.NONE;
+        }
+        BitSet result = null;
+        for (String word : words) {
+            BitSet matches = matchesFor(word);
+            if (result == null) {
+                result = matches;
+            } else {
+                result.and(matches);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return new Matches(result);
+    }
+
+    private BitSet matchesFor(String word) {
+        long[] keys = new long[(keyLimit >> 6) + 1];
+        numericIds.collectPrefix(word, keys);
+        for (int key : withPrefix(keyByOtherId, word)) {
+            keys[key >> 6] |= 1L << key;
+        }
+        BitSet articleIds = new BitSet();
+        for (BitSet tokenArticleIds : withPrefix(articleIdsByToken, word)) {
+            articleIds.or(tokenArticleIds);
+        }
+        for (int id = articleIds.nextSetBit(0); id >= 0; id = articleIds.nextSetBit(id + 1)) {
+            keysByArticleId[id].collect(keys);
+        }
+        for (KeyList noteKeys : withPrefix(keysByNoteToken, word)) {
+            noteKeys.collect(keys);
+        }
+        return BitSet.valueOf(keys);
+    }
+
+    private static <V> Iterable<V> withPrefix(TreeMap<String, V> map, String prefix) {
+        return map.subMap(prefix, prefix + Character.MAX_VALUE).values();
+    }
+
+    // Article names repeat across many rows, so they are tokenized once per distinct article.
+    private void addArticle(int key, int articleId) {
+        if (articleId >= keysByArticleId.length) {
+            keysByArticleId = Arrays.copyOf(keysByArticleId, Math.max(articleId + 1, keysByArticleId.length * 2));
+        }
+        KeyList keys = keysByArticleId[articleId];
+        if (keys == null) {
+            keys = new KeyList();
+            keysByArticleId[articleId] = keys;
+            for (String token : tokens(articles.name(articleId))) {
+                articleIdsByToken.computeIfAbsent(token, t -> new BitSet()).set(articleId);
+            }
+        }
+        keys.add(key);
+    }
+
+    private void removeArticle(int key, int articleId) {
+        KeyList keys = keysByArticleId[articleId];
+        if (keys == null || !keys.remove(key) || !keys.isEmpty()) {
+            return;
+        }
+        keysByArticleId[articleId] = null;
+        for (String token : tokens(articles.name(articleId))) {
+            BitSet articleIds = articleIdsByToken.get(token);
+            if (articleIds != null) {
+                articleIds.clear(articleId);
+                if (articleIds.isEmpty()) {
+                    articleIdsByToken.remove(token);
+                }
+            }
+        }
+    }
+
+    private void addNotes(int key, String notes) {
+        for (String token : tokens(notes)) {
+            keysByNoteToken.computeIfAbsent(token, t -> new KeyList()).add(key);
+        }
+    }
+
+    private void removeNotes(int key, String notes) {
+        for (String token : tokens(notes)) {
+            KeyList keys = keysByNoteToken.get(token);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                keysByNoteToken.remove(token);
+            }
+        }
+    }
+
+    // The distinct lower-case runs of letters and digits. Called for every distinct article and note
+    // while a session is loaded, so it scans the text itself instead of splitting on a regex.
+    static String[] tokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return NO_TOKENS;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        String[] tokens = NO_TOKENS;
+        int count = 0;
+        int length = lower.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !isWordChar(lower.codePointAt(i))) {
+                i += Character.charCount(lower.codePointAt(i));
+            }
+            int start = i;
+            while (i < length && isWordChar(lower.codePointAt(i))) {
+                i += Character.charCount(lower.codePointAt(i));
+            }
+            if (i > start) {
+                String token = lower.substring(start, i);
+                if (!contains(tokens, count, token)) {
+                    if (count == tokens.length) {
+                        tokens = Arrays.copyOf(tokens, Math.max(4, count * 2));
+                    }
+                    tokens[count++] = token;
+                }
+            }
+        }
+        return count == tokens.length ? tokens : Arrays.copyOf(tokens, count);
+    }
+
+    // Letters and numbers, the same as \p{L} and \p{N}.
+    private static boolean isWordChar(int codePoint) {
+        if (codePoint < 128) {
+            return (codePoint >= 'a' && codePoint <= 'z') || (codePoint >= '0' && codePoint <= '9') || (codePoint >= 'A' && codePoint <= 'Z');
+        }
+        if (Character.isLetter(codePoint)) {
+            return true;
+        }
+        int type = Character.getType(codePoint);
+        return type == Character.DECIMAL_DIGIT_NUMBER || type == Character.LETTER_NUMBER || type == Character.OTHER_NUMBER;
+    }
+
+    private static boolean contains(String[] tokens, int count, String token) {
+        for (int i = 0; i < count; i++) {
+            if (tokens[i].equals(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The value of a text that is a plain number without sign or leading zeros, otherwise -1.
+    private static long canonicalNumber(String text) {
+        int length = text.length();
+        if (length == 0 || length > 18 || (length > 1 && text.charAt(0) == '0')) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Numeric pallet IDs with their keys, sorted by ID. New IDs are appended to an unsorted tail and
+     * removed keys are only marked; both are folded in before the next search, so a scan costs
+     * O(1) and deleting many rows does not shift the arrays once per row.
+     */
+    private static final class NumericIds {
+        private long[] ids = new long[256];
+        private int[] keys = new int[256];
+        private int size;
+        private int sorted;
+        private final BitSet removed = new BitSet();
+        private int removedCount;
+
+        void add(long id, int key) {
+            if (size == ids.length && removedCount > size / 4) {
+                // Without searches the removed entries would pile up; they are dropped before growing.
+                normalize();
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            ids[size] = id;
+            keys[size] = key;
+            size++;
+        }
+
+        void remove(int key) {
+            if (!removed.get(key)) {
+                removed.set(key);
+                removedCount++;
+            }
+        }
+
+        void clear() {
+            size = 0;
+            sorted = 0;
+            removed.clear();
+            removedCount = 0;
+        }
+
+        void collectPrefix(String word, long[] matches) {
+            long prefix = canonicalNumber(word);
+            if (prefix < 0) {
+                return;
+            }
+            normalize();
+            // The IDs that start with the prefix form one range per number of digits.
+            long low = prefix;
+            long high = prefix;
+            for (int digits = word.length(); digits <= 18; digits++) {
+                for (int i = lowerBound(low); i < size && ids[i] <= high; i++) {
+                    int key = keys[i];
+                    matches[key >> 6] |= 1L << key;
+                }
+                if (prefix == 0) {
+                    break;
+                }
+                low = low * 10;
+                high = high * 10 + 9;
+            }
+        }
+
+        private int lowerBound(long id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (ids[middle] < id) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        // Drops the removed entries and merges the tail into the sorted part.
+        private void normalize() {
+            if (removedCount > 0) {
+                int kept = 0;
+                int keptSorted = 0;
+                for (int i = 0; i < size; i++) {
+                    if (!removed.get(keys[i])) {
+                        ids[kept] = ids[i];
+                        keys[kept] = keys[i];
+                        kept++;
+                        if (i < sorted) {
+                            keptSorted++;
+                        }
+                    }
+                }
+                size = kept;
+                sorted = keptSorted;
+                removed.clear();
+                removedCount = 0;
+            }
+            if (sorted == size) {
+                return;
+            }
+            Integer[] order = new Integer[size - sorted];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = sorted + i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(ids[a], ids[b]));
+            long[] tailIds = new long[order.length];
+            int[] tailKeys = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                tailIds[i] = ids[order[i]];
+                tailKeys[i] = keys[order[i]];
+            }
+            // Merges from the back, so the sorted part can stay in place.
+            int i = sorted - 1;
+            int j = tailIds.length - 1;
+            for (int target = size - 1; j >= 0; target--) {
+                if (i >= 0 && ids[i] > tailIds[j]) {
+                    ids[target] = ids[i];
+                    keys[target] = keys[i];
+                    i--;
+                } else {
+                    ids[target] = tailIds[j];
+                    keys[target] = tailKeys[j];
+                    j--;
+                }
+            }
+            sorted = size;
+        }
+    }
+
+    /** Sorted row keys. New rows get the highest key, so adding is nearly always an append. */
+    private static final class KeyList {
+        private int[] keys = new int[4];
+        private int size;
+
+        void add(int key) {
+            int index = size == 0 || keys[size - 1] < key ? -size - 1 : Arrays.binarySearch(keys, 0, size, key);
+            if (index >= 0) {
+                return;
+            }
+            int insertAt = -index - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            System.arraycopy(keys, insertAt, keys, insertAt + 1, size - insertAt);
+            keys[insertAt] = key;
+            size++;
+        }
+
+        boolean remove(int key) {
+            int index = Arrays.binarySearch(keys, 0, size, key);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void collect(long[] matches) {
+            for (int i = 0; i < size; i++) {
+                int key = keys[i];
+                matches[key >> 6] |= 1L << key;
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package RP.FitKit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Encoding of session snapshots.
+ * <p>
+ * The binary layout (version 1) is: the magic {@code INVS}, a version byte, the edited pallet IDs,
+ * the article dictionary, and then the rows. Strings are length-prefixed UTF-8, counts and
+ * quantities are varints, and each row refers to its article by dictionary index. The edited-ID
+ * section, the dictionary and every row carry their own CRC32, and rows are length-prefixed so a
+ * damaged row can be skipped without losing the rest.
+ * <p>
+ * Snapshots written before the binary format (the ROW_START text layout) are still readable.
+ */
+final class SessionSnapshotFormat {
+    static final int VERSION = 1;
+    static final String UNKNOWN_ARTICLE = "--- ONBEKEND ARTIKEL ---";
+
+    private static final byte[] MAGIC = {'I', 'N', 'V', 'S'};
+    private static final String EDITED_HEADER = "EDITED_IDS:";
+    private static final String ROW_MARKER = "ROW_START";
+    private static final char CHECKSUM_SEPARATOR = '#';
+
+    private SessionSnapshotFormat() {
+    }
+
+    static void write(SessionStore.State state, OutputStream out) throws IOException {
+        LinkedHashMap<String, Integer> dictionary = new LinkedHashMap<>();
+        for (SessionRow row : state.rows()) {
+            dictionary.putIfAbsent(row.article(), dictionary.size());
+        }
+
+        out.write(MAGIC);
+        out.write(VERSION);
+
+        ByteArrayOutputStream section = new ByteArrayOutputStream(256);
+        writeVarint(section, state.editedPalletIds().size());
+        for (String palletId : state.editedPalletIds()) {
+            writeString(section, palletId);
+        }
+        writeChecked(out, section);
+
+        section.reset();
+        writeVarint(section, dictionary.size());
+        for (String article : dictionary.keySet()) {
+            writeString(section, article);
+        }
+        writeChecked(out, section);
+
+        writeVarint(out, state.rows().size());
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        for (SessionRow row : state.rows()) {
+            payload.reset();
+            writeString(payload, row.palletId());
+            writeVarint(payload, dictionary.get(row.article()));
+            writeVarint(payload, zigzag(row.quantity()));
+            writeString(payload, row.notes());
+            writeVarint(out, payload.size());
+            writeChecked(out, payload);
+        }
+    }
+
+    /**
+     * Reads a snapshot in either format and returns the number of records that were skipped
+     * because they were damaged.
+     */
+    static int read(Path file, LinkedHashMap<String, SessionRow> rows, Set<String> edited) throws IOException {
+        if (isLegacy(file)) {
+            return readLegacy(Files.readAllLines(file, StandardCharsets.UTF_8), rows, edited);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return readBinary(buffer, rows, edited);
+        }
+    }
+
+    static boolean isLegacy(Path file) throws IOException {
+        if (Files.size(file) < MAGIC.length) {
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(MAGIC.length);
+            while (head.hasRemaining() && channel.read(head) != -1) {
+                // keep reading until the magic is complete
+            }
+            return !Arrays.equals(head.array(), MAGIC);
+        }
+    }
+
+    private static int readBinary(ByteBuffer buffer, LinkedHashMap<String, SessionRow> rows, Set<String> edited) throws IOException {
+        buffer.position(MAGIC.length);
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Onbekende versie van het sessiebestand: " + version);
+        }
+
+        int skipped = 0;
+        try {
+            int start = buffer.position();
+            int count = readCount(buffer);
+            String[] ids = new String[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = readString(buffer);
+            }
+            if (verify(buffer, start)) {
+                edited.addAll(Arrays.asList(ids));
+            } else {
+                skipped++;
+            }
+
+            start = buffer.position();
+            count = readCount(buffer);
+            String[] dictionary = new String[count];
+            for (int i = 0; i < count; i++) {
+                dictionary[i] = readString(buffer);
+            }
+            if (!verify(buffer, start)) {
+                // Rows are still usable; they just lose their article names.
+                Arrays.fill(dictionary, UNKNOWN_ARTICLE);
+                skipped++;
+            }
+
+            int rowCount = readCount(buffer);
+            for (int i = 0; i < rowCount; i++) {
+                int length = readVarint(buffer);
+                int payloadStart = buffer.position();
+                if (length <= 0 || length + 4 > buffer.remaining()) {
+                    skipped += rowCount - i;
+                    break;
+                }
+                buffer.position(payloadStart + length);
+                if (!verify(buffer, payloadStart)) {
+                    skipped++;
+                    continue;
+                }
+                ByteBuffer row = buffer.duplicate().position(payloadStart).limit(payloadStart + length);
+                String palletId = readString(row);
+                int articleIndex = readVarint(row);
+                int quantity = unzigzag(readVarint(row));
+                String notes = readString(row);
+                String article = articleIndex < dictionary.length ? dictionary[articleIndex] : UNKNOWN_ARTICLE;
+                rows.put(palletId, new SessionRow(palletId, article, quantity, notes));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // The file ends early or a length is damaged; everything read so far is kept.
+            skipped++;
+        }
+        return skipped;
+    }
+
+    private static int readLegacy(List<String> lines, LinkedHashMap<String, SessionRow> rows, Set<String> edited) {
+        if (lines.isEmpty()) {
+            return 0;
+        }
+
+        int skipped = 0;
+        String header = lines.get(0);
+        if (header.startsWith(EDITED_HEADER)) {
+            String idString = header.substring(EDITED_HEADER.length());
+            int separator = idString.lastIndexOf(CHECKSUM_SEPARATOR);
+            if (separator != -1) {
+                String expected = idString.substring(separator + 1);
+                idString = idString.substring(0, separator);
+                if (!expected.equals(checksum(idString))) {
+                    idString = "";
+                    skipped++;
+                }
+            }
+            if (!idString.isEmpty()) {
+                edited.addAll(Arrays.asList(idString.split(",")));
+            }
+        }
+
+        int i = 1;
+        while (i < lines.size()) {
+            String line = lines.get(i);
+            if (!line.startsWith(ROW_MARKER)) {
+                i++;
+                continue;
+            }
+            if (i + 4 >= lines.size()) {
+                skipped++;
+                break;
+            }
+            String palletId = lines.get(i + 1);
+            String article = lines.get(i + 2);
+            String quantity = lines.get(i + 3);
+            String notes = lines.get(i + 4);
+
+            boolean valid = line.length() == ROW_MARKER.length()
+                    || line.substring(ROW_MARKER.length() + 1).equals(checksum(palletId, article, quantity, notes));
+            if (valid) {
+                try {
+                    rows.put(palletId, new SessionRow(palletId, article, Integer.parseInt(quantity), notes));
+                    i += 5;
+                    continue;
+                } catch (NumberFormatException e) {
+                    // Counted as skipped below.
+                }
+            }
+            // Resynchronise on the next row marker instead of trusting the damaged record's length.
+            skipped++;
+            i++;
+        }
+        return skipped;
+    }
+
+    private static String checksum(String... fields) {
+        CRC32 crc = new CRC32();
+        for (String field : fields) {
+            crc.update(field.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static void writeChecked(OutputStream out, ByteArrayOutputStream section) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] bytes = section.toByteArray();
+        crc.update(bytes);
+        out.write(bytes);
+        int value = (int) crc.getValue();
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    // Checks the CRC32 that follows the bytes from start up to the current position.
+    private static boolean verify(ByteBuffer buffer, int start) {
+        int end = buffer.position();
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(start).limit(end));
+        return buffer.getInt() == (int) crc.getValue();
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = readVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Ongeldige stringlengte: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Ongeldige varint");
+    }
+
+    // Every counted element takes at least one byte, which bounds any sane count by what is left.
+    private static int readCount(ByteBuffer buffer) {
+        int count = readVarint(buffer);
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IllegalArgumentException("Ongeldig aantal: " + count);
+        }
+        return count;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,504 @@
+package RP.FitKit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Session persistence as a snapshot plus an append-only journal. Every mutation appends one small
+ * record to the journal, so the cost of an edit does not depend on the size of the session.
+ * Appends are synced to disk in batches, and after enough records the current state is written
+ * as a new snapshot and the journal starts over.
+ * <p>
+ * Snapshot rows and journal records each carry a CRC32. Snapshots are written to a temporary file
+ * and atomically moved into place, and the previous snapshots are kept as numbered generations.
+ */
+class SessionStore implements AutoCloseable {
+
+    record State(List<SessionRow> rows, Set<String> editedPalletIds, int skippedRecords) {
+        State(List<SessionRow> rows, Set<String> editedPalletIds) {
+            this(rows, editedPalletIds, 0);
+        }
+    }
+
+    record Generation(int number, Path file, FileTime savedAt) {
+    }
+
+    static final int GENERATIONS = 3;
+
+    // Records 1-3 held their text as writeUTF, which is limited to 65535 bytes; they are still read.
+    private static final byte LEGACY_RECORD_PUT = 1;
+    private static final byte LEGACY_RECORD_REMOVE = 2;
+    private static final byte LEGACY_RECORD_EDITED = 3;
+    private static final byte RECORD_PUT = 4;
+    private static final byte RECORD_REMOVE = 5;
+    private static final byte RECORD_EDITED = 6;
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    private static final int MOVE_ATTEMPTS = 5;
+
+    private static final long FSYNC_INTERVAL_MILLIS = 200;
+    private static final int COMPACT_AFTER_RECORDS = 5000;
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Supplier<State> stateSource;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "session-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private FileChannel journal;
+    private boolean syncScheduled;
+    private int recordsSinceSnapshot;
+
+    SessionStore(Path snapshotFile, Path journalFile, Supplier<State> stateSource) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = journalFile;
+        this.stateSource = stateSource;
+    }
+
+    /**
+     * Reads the snapshot and replays the journal. Records that fail their checksum or are cut off
+     * are skipped and counted in {@link State#skippedRecords()}; every valid record is kept.
+     */
+    State load() throws IOException {
+        Files.deleteIfExists(temporarySnapshot());
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        LinkedHashMap<String, SessionRow> rows = new LinkedHashMap<>();
+        Set<String> edited = new LinkedHashSet<>();
+        int skipped = 0;
+        boolean legacy = false;
+        if (Files.exists(snapshotFile)) {
+            legacy = SessionSnapshotFormat.isLegacy(snapshotFile);
+            skipped += readSnapshot(snapshotFile, rows, edited);
+        }
+        long journalSize = Files.size(journalFile);
+        if (journalSize > 0) {
+            Replay replay = replayJournal(journalFile, rows, edited);
+            recordsSinceSnapshot = replay.applied();
+            skipped += replay.skipped();
+            if (replay.validEnd() < journalSize) {
+                // New records would otherwise follow the damaged bytes and be lost to the next replay.
+                System.out.println("Beschadigd einde van het journaal afgekapt: " + (journalSize - replay.validEnd()) + " bytes.");
+                journal.truncate(replay.validEnd());
+                journal.force(false);
+            }
+        }
+        State state = new State(new ArrayList<>(rows.values()), edited, skipped);
+        if (legacy) {
+            // Convert once; the text snapshot is kept as the newest generation.
+            compact(state);
+        }
+        return state;
+    }
+
+    void rowPut(SessionRow row) {
+        append(RECORD_PUT, out -> {
+            writeText(out, row.palletId());
+            writeText(out, row.article());
+            out.writeInt(row.quantity());
+            writeText(out, row.notes());
+        });
+    }
+
+    void rowRemoved(String palletId) {
+        append(RECORD_REMOVE, out -> writeText(out, palletId));
+    }
+
+    void rowEdited(String palletId) {
+        append(RECORD_EDITED, out -> writeText(out, palletId));
+    }
+
+    void clear() {
+        recordsSinceSnapshot = 0;
+        writer.execute(() -> {
+            try {
+                if (Files.exists(snapshotFile) || journal.size() > 0) {
+                    // Edits that are only in the journal belong to the cleared session too; as with a
+                    // replace, the full state is written first, so the newest generation holds all of it.
+                    writeSnapshot(mergedCurrentState());
+                    rotateGenerations();
+                }
+                journal.truncate(0);
+                journal.force(false);
+                Files.deleteIfExists(snapshotFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    List<Generation> generations() {
+        List<Generation> generations = new ArrayList<>();
+        for (int number = 1; number <= GENERATIONS; number++) {
+            Path file = generationFile(number);
+            try {
+                if (Files.exists(file)) {
+                    generations.add(new Generation(number, file, Files.getLastModifiedTime(file)));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return generations;
+    }
+
+    /**
+     * Replaces the current session with an older generation. Pending journal writes are finished
+     * first; the current snapshot becomes the newest generation, so a restore can be undone too.
+     */
+    State restore(Generation generation) throws IOException {
+        return replace(() -> {
+            LinkedHashMap<String, SessionRow> rows = new LinkedHashMap<>();
+            Set<String> edited = new LinkedHashSet<>();
+            int skipped = readSnapshot(generation.file(), rows, edited);
+            return new State(new ArrayList<>(rows.values()), edited, skipped);
+        });
+    }
+
+    /**
+     * Replaces the current session with the given state, for example a merged count. As with a
+     * restore, the current snapshot is kept as the newest generation.
+     */
+    void replace(State state) throws IOException {
+        replace(() -> state);
+    }
+
+    private interface StateLoader {
+        State load() throws IOException;
+    }
+
+    private State replace(StateLoader loader) throws IOException {
+        try {
+            return writer.submit(() -> {
+                State state = loader.load();
+                State current = mergedCurrentState();
+                writeSnapshot(current);
+                writeSnapshot(state);
+                journal.truncate(0);
+                journal.force(false);
+                recordsSinceSnapshot = 0;
+                return state;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    private State mergedCurrentState() throws IOException {
+        LinkedHashMap<String, SessionRow> rows = new LinkedHashMap<>();
+        Set<String> edited = new LinkedHashSet<>();
+        if (Files.exists(snapshotFile)) {
+            readSnapshot(snapshotFile, rows, edited);
+        }
+        journal.force(false);
+        replayJournal(journalFile, rows, edited);
+        return new State(new ArrayList<>(rows.values()), edited);
+    }
+
+    /**
+     * Reads a session without opening it for writing, for example a session file copied from
+     * another station. Either file may be null or missing.
+     */
+    static State read(Path snapshotFile, Path journalFile) throws IOException {
+        LinkedHashMap<String, SessionRow> rows = new LinkedHashMap<>();
+        Set<String> edited = new LinkedHashSet<>();
+        int skipped = 0;
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            skipped += readSnapshot(snapshotFile, rows, edited);
+        }
+        if (journalFile != null && Files.exists(journalFile)) {
+            skipped += replayJournal(journalFile, rows, edited).skipped();
+        }
+        return new State(new ArrayList<>(rows.values()), edited, skipped);
+    }
+
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void append(byte type, RecordBody body) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeByte(type);
+            body.write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        // Layout: payload length, payload (type byte + fields), CRC32 of the payload.
+        ByteBuffer record = ByteBuffer.allocate(4 + bytes.length + 4);
+        record.putInt(bytes.length).put(bytes).putInt((int) crc.getValue()).flip();
+        writer.execute(() -> {
+            try {
+                while (record.hasRemaining()) {
+                    journal.write(record);
+                }
+                scheduleSync();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        LatencyRecorder.recordSince(LatencyRecorder.Stage.JOURNAL_APPEND, start);
+
+        if (++recordsSinceSnapshot >= COMPACT_AFTER_RECORDS) {
+            compact();
+        }
+    }
+
+    // Runs on the writer thread only.
+    private void scheduleSync() {
+        if (syncScheduled) {
+            return;
+        }
+        syncScheduled = true;
+        writer.schedule(() -> {
+            syncScheduled = false;
+            long start = System.nanoTime();
+            try {
+                journal.force(false);
+                LatencyRecorder.recordSince(LatencyRecorder.Stage.JOURNAL_FSYNC, start);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, FSYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Captures the current state on the calling thread and writes it as the new snapshot on the
+     * writer thread. Records appended after the capture are queued behind the compaction, so
+     * truncating the journal afterwards never loses an edit.
+     */
+    void compact() {
+        long start = System.nanoTime();
+        State state = stateSource.get();
+        LatencyRecorder.recordSince(LatencyRecorder.Stage.SNAPSHOT_CAPTURE, start);
+        compact(state);
+    }
+
+    private void compact(State state) {
+        recordsSinceSnapshot = 0;
+        writer.execute(() -> {
+            try {
+                writeSnapshot(state);
+                journal.truncate(0);
+                journal.force(false);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // Runs on the writer thread only. The old snapshot stays in place until the new one is complete.
+    private void writeSnapshot(State state) throws IOException {
+        long start = System.nanoTime();
+        Path temp = temporarySnapshot();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024)) {
+            SessionSnapshotFormat.write(state, out);
+            out.flush();
+            channel.force(true);
+        }
+        rotateGenerations();
+        move(temp, snapshotFile);
+        LatencyRecorder.recordSince(LatencyRecorder.Stage.SNAPSHOT_WRITE, start);
+    }
+
+    private void rotateGenerations() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        for (int number = GENERATIONS; number > 1; number--) {
+            Path older = generationFile(number - 1);
+            if (Files.exists(older)) {
+                move(older, generationFile(number));
+            }
+        }
+        // Copied rather than moved, so there is never a moment without a current snapshot.
+        Files.copy(snapshotFile, generationFile(1), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    /**
+     * Snapshots are loaded through a memory mapping, and Windows refuses to replace a file while a
+     * mapping of it is still reachable. The mapping is released once it is garbage collected, so a
+     * failed move is retried a few times after asking for a collection.
+     */
+    private static void move(Path source, Path target) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return;
+            } catch (FileSystemException e) {
+                if (attempt == MOVE_ATTEMPTS) {
+                    throw e;
+                }
+                System.gc();
+                try {
+                    Thread.sleep(50L * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private Path generationFile(int number) {
+        return snapshotFile.resolveSibling(snapshotFile.getFileName() + "." + number);
+    }
+
+    private Path temporarySnapshot() {
+        return snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+    }
+
+    private static int readSnapshot(Path file, LinkedHashMap<String, SessionRow> rows, Set<String> edited) throws IOException {
+        return SessionSnapshotFormat.read(file, rows, edited);
+    }
+
+    // validEnd is the offset after the last record that could be framed; anything beyond it is damaged.
+    private record Replay(int applied, int skipped, long validEnd) {
+    }
+
+    private static Replay replayJournal(Path journalFile, LinkedHashMap<String, SessionRow> rows, Set<String> edited) throws IOException {
+        int applied = 0;
+        int skipped = 0;
+        long validEnd = 0;
+        try (InputStream in = Channels.newInputStream(FileChannel.open(journalFile, StandardOpenOption.READ));
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            while (true) {
+                int length;
+                try {
+                    length = data.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    // The length itself is damaged; nothing after this point can be framed.
+                    skipped++;
+                    break;
+                }
+                byte[] payload = new byte[length];
+                int storedCrc;
+                try {
+                    data.readFully(payload);
+                    storedCrc = data.readInt();
+                } catch (EOFException e) {
+                    // A record cut off by a crash; everything before it has been applied.
+                    skipped++;
+                    break;
+                }
+                validEnd += 4 + length + 4;
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != storedCrc) {
+                    skipped++;
+                    continue;
+                }
+                applyRecord(new DataInputStream(new ByteArrayInputStream(payload)), rows, edited);
+                applied++;
+            }
+        }
+        return new Replay(applied, skipped, validEnd);
+    }
+
+    private static void applyRecord(DataInputStream data, LinkedHashMap<String, SessionRow> rows, Set<String> edited) throws IOException {
+        int type = data.readByte();
+        switch (type) {
+            case RECORD_PUT -> {
+                SessionRow row = new SessionRow(readText(data), readText(data), data.readInt(), readText(data));
+                rows.put(row.palletId(), row);
+            }
+            case RECORD_REMOVE -> {
+                String palletId = readText(data);
+                rows.remove(palletId);
+                edited.remove(palletId);
+            }
+            case RECORD_EDITED -> edited.add(readText(data));
+            case LEGACY_RECORD_PUT -> {
+                SessionRow row = new SessionRow(data.readUTF(), data.readUTF(), data.readInt(), data.readUTF());
+                rows.put(row.palletId(), row);
+            }
+            case LEGACY_RECORD_REMOVE -> {
+                String palletId = data.readUTF();
+                rows.remove(palletId);
+                edited.remove(palletId);
+            }
+            case LEGACY_RECORD_EDITED -> edited.add(data.readUTF());
+            default -> throw new IOException("Onbekend journaalrecord: " + type);
+        }
+    }
+
+    // Length-prefixed UTF-8, so a text is not limited to 65535 bytes as with writeUTF.
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readText(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if (length < 0 || length > MAX_RECORD_LENGTH) {
+            throw new IOException("Ongeldige tekstlengte in journaalrecord: " + length);
+        }
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Writes a final snapshot when there are unsaved journal records, so every run leaves a generation behind.
+    @Override
+    public void close() {
+        if (journal != null && recordsSinceSnapshot > 0) {
+            compact();
+        }
+        writer.shutdown();
+        try {
+            if (writer.awaitTermination(5, TimeUnit.SECONDS) && journal != null) {
+                journal.force(false);
+                journal.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
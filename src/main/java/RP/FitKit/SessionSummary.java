@@ -0,0 +1,57 @@
+package RP.FitKit;
+
+import java.util.Arrays;
+
+/**
+ * Running totals for the session overview. Every table mutation reports its delta here, so the
+ * overview is updated in constant time instead of re-reading every row. Articles are counted by
+ * their {@link ArticleDictionary} ID.
+ */
+final class SessionSummary {
+    private int[] articleReferences = new int[64];
+    private int uniqueArticles;
+    private int palletCount;
+    private long totalQuantity;
+
+    void rowAdded(int articleId, int quantity) {
+        palletCount++;
+        totalQuantity += quantity;
+        if (articleId >= articleReferences.length) {
+            articleReferences = Arrays.copyOf(articleReferences, Math.max(articleId + 1, articleReferences.length * 2));
+        }
+        if (articleReferences[articleId]++ == 0) {
+            uniqueArticles++;
+        }
+    }
+
+    void rowRemoved(int articleId, int quantity) {
+        palletCount--;
+        totalQuantity -= quantity;
+        if (--articleReferences[articleId] == 0) {
+            uniqueArticles--;
+        }
+    }
+
+    void quantityChanged(int oldQuantity, int newQuantity) {
+        totalQuantity += (long) newQuantity - oldQuantity;
+    }
+
+    void clear() {
+        palletCount = 0;
+        totalQuantity = 0;
+        uniqueArticles = 0;
+        Arrays.fill(articleReferences, 0);
+    }
+
+    int palletCount() {
+        return palletCount;
+    }
+
+    long totalQuantity() {
+        return totalQuantity;
+    }
+
+    int uniqueArticles() {
+        return uniqueArticles;
+    }
+}